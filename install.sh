@@ -1,2 +1,11 @@
 #!/bin/sh
 cp build/libs/java-multiCameraServer-all.jar runCamera /home/pi
+
+# The class-data-sharing archive is tied to this JVM and to the jar's path and timestamp, so it
+# is dumped here, against the installed jar, from the class list "./gradlew cdsClassList" made.
+rm -f /home/pi/java-multiCameraServer.jsa
+if [ -f build/libs/classes.lst ]; then
+  java -Xshare:dump -XX:SharedClassListFile=build/libs/classes.lst \
+    -XX:SharedArchiveFile=/home/pi/java-multiCameraServer.jsa \
+    -cp /home/pi/java-multiCameraServer-all.jar
+fi
@@ -0,0 +1,175 @@
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+import benchmarks.Workload;
+
+/**
+ * The pipeline stages timed by {@link benchmarks.PipelineBenchmark}. This class sits in the
+ * default package so it can reach the pipelines' package-private stage methods.
+ */
+public final class PipelineWorkloads {
+  static {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  private PipelineWorkloads() {
+  }
+
+  /**
+   * Creates the named workload.
+   */
+  public static Workload create(String name) {
+    // the target pairing only runs in vision mode
+    PipelineTuning.set(PipelineParameters.Tunable.VISION_MODE, true);
+    switch (name) {
+      case "GripPipeline.hslThreshold":
+        return new GripStage() {
+          @Override
+          public Object run() {
+            pipeline.hslThresholdStep(pipeline.outputImg);
+            return pipeline.hslThresholdOutput();
+          }
+        };
+      case "GripPipeline.lutThreshold":
+        return new GripStage() {
+          private final LutSegmenter segmenter = new LutSegmenter();
+          private final PipelineParameters params = PipelineParameters.defaults();
+          private final Mat mask = new Mat();
+
+          @Override
+          public void setUp(Mat frame) {
+            super.setUp(frame);
+            // the lookup table must agree with the exact threshold before its timing means anything
+            run();
+            double mismatch = LutSegmenter.mismatch(mask, pipeline.hslThresholdOutput());
+            if (mismatch > LutSegmenter.MAX_MISMATCH) {
+              throw new IllegalStateException("lookup table mask differs from cvtColor/inRange on "
+                  + mismatch * 100 + "% of pixels");
+            }
+          }
+
+          @Override
+          public Object run() {
+            segmenter.threshold(pipeline.outputImg, params.hslLower, params.hslUpper, mask);
+            return mask;
+          }
+        };
+      case "GripPipeline.blur":
+        return new GripStage() {
+          @Override
+          public Object run() {
+            pipeline.blurStep();
+            return pipeline.blurOutput();
+          }
+        };
+      case "GripPipeline.findContours":
+        return new GripStage() {
+          @Override
+          public Object run() {
+            pipeline.findContoursStep();
+            return pipeline.findContoursOutput();
+          }
+        };
+      case "GripPipeline.filterContours":
+        return new GripStage() {
+          @Override
+          public Object run() {
+            pipeline.filterContoursStep();
+            return pipeline.filterContoursOutput();
+          }
+        };
+      case "GripPipeline.findTargetPair":
+        return new GripStage() {
+          @Override
+          public Object run() {
+            pipeline.findTargetPair();
+            return pipeline.midOffset;
+          }
+        };
+      case "GripPipeline.process":
+        return new GripStage() {
+          @Override
+          public Object run() {
+            pipeline.process(frame);
+            return pipeline.midOffset;
+          }
+        };
+      case "GripPipeline.processFlipResults":
+        return new GripStage() {
+          @Override
+          public void setUp(Mat frame) {
+            // the offset must not depend on whether the pixels or the results are flipped
+            super.setUp(frame);
+            double flippedPixelsOffset = pipeline.midOffset;
+            PipelineTuning.set(PipelineParameters.Tunable.FLIP_RESULTS, true);
+            pipeline.process(frame);
+            if (Math.abs(pipeline.midOffset - flippedPixelsOffset) > 1e-9) {
+              throw new IllegalStateException("flipping results gave offset " + pipeline.midOffset
+                  + " but flipping pixels gave " + flippedPixelsOffset);
+            }
+          }
+
+          @Override
+          public Object run() {
+            pipeline.process(frame);
+            return pipeline.midOffset;
+          }
+        };
+      case "OldGripPipeline.process":
+        return new DrawingPipeline(new OldGripPipeline());
+      case "MyPipeline.process":
+        return new DrawingPipeline(new Main.MyPipeline());
+      default:
+        throw new IllegalArgumentException("unknown workload '" + name + "'");
+    }
+  }
+
+  /**
+   * Draws a 416x240 frame crowded with {@code strips} target strips, as "\ /" pairs in a grid,
+   * in the raw upside-down orientation of the corpus frames.
+   */
+  public static Mat syntheticFrame(int strips) {
+    return SyntheticFrames.targets(strips, 8);
+  }
+
+  /**
+   * A single GripPipeline stage. Setup runs the whole pipeline once so every stage has its
+   * real inputs.
+   */
+  private abstract static class GripStage implements Workload {
+    final GripPipeline pipeline = new GripPipeline();
+    Mat frame;
+
+    @Override
+    public void setUp(Mat frame) {
+      this.frame = frame;
+      pipeline.process(frame);
+    }
+  }
+
+  /**
+   * A whole pipeline that draws its results onto the input frame, so each run starts from a
+   * fresh copy of the corpus frame. The copy is included in the timing.
+   */
+  private static final class DrawingPipeline implements Workload {
+    private final edu.wpi.first.vision.VisionPipeline pipeline;
+    private final Mat working = new Mat();
+    private Mat frame;
+
+    DrawingPipeline(edu.wpi.first.vision.VisionPipeline pipeline) {
+      this.pipeline = pipeline;
+    }
+
+    @Override
+    public void setUp(Mat frame) {
+      this.frame = frame;
+    }
+
+    @Override
+    public Object run() {
+      frame.copyTo(working);
+      pipeline.process(working);
+      return working;
+    }
+  }
+}
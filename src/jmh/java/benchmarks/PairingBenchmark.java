@@ -0,0 +1,51 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times target pairing on synthetic frames with far more strips than the corpus, to check the
+ * matcher stays inside the frame budget when the field is cluttered.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PairingBenchmark {
+  @Param({"16", "64", "128"})
+  public int strips;
+
+  @Param({"GripPipeline.findTargetPair", "GripPipeline.process"})
+  public String workload;
+
+  private Workload work;
+
+  /**
+   * Draws the frame and prepares the workload.
+   */
+  @Setup
+  public void setUp() throws ReflectiveOperationException {
+    Class<?> workloads = Class.forName("PipelineWorkloads");
+    work = (Workload) workloads.getMethod("create", String.class).invoke(null, workload);
+    work.setUp((Mat) workloads.getMethod("syntheticFrame", int.class).invoke(null, strips));
+  }
+
+  @Benchmark
+  public Object run() {
+    return work.run();
+  }
+}
@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times each pipeline stage and each whole pipeline on the checked-in frame corpus.
+ *
+ * <p>Run with {@code ./gradlew jmh}. The corpus directory comes from the {@code corpus.dir}
+ * system property, which the gradle task points at {@code src/jmh/frames}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+  @Param({"160x120", "320x240", "416x240"})
+  public String size;
+
+  @Param({"aligned", "offset", "cluttered"})
+  public String frame;
+
+  @Param({
+      "GripPipeline.hslThreshold",
+      "GripPipeline.lutThreshold",
+      "GripPipeline.blur",
+      "GripPipeline.findContours",
+      "GripPipeline.filterContours",
+      "GripPipeline.findTargetPair",
+      "GripPipeline.process",
+      "GripPipeline.processFlipResults",
+      "OldGripPipeline.process",
+      "MyPipeline.process"})
+  public String workload;
+
+  private Workload work;
+
+  /**
+   * Loads the corpus frame and prepares the workload.
+   */
+  @Setup
+  public void setUp() throws ReflectiveOperationException {
+    File file = new File(System.getProperty("corpus.dir", "src/jmh/frames"), size + "/" + frame + ".png");
+    work = (Workload) Class.forName("PipelineWorkloads")
+        .getMethod("create", String.class)
+        .invoke(null, workload);
+    Mat image = Imgcodecs.imread(file.getPath());
+    if (image.empty()) {
+      throw new IllegalStateException("could not read corpus frame " + file);
+    }
+    work.setUp(image);
+  }
+
+  @Benchmark
+  public Object run() {
+    return work.run();
+  }
+}
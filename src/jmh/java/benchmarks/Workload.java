@@ -0,0 +1,19 @@
+package benchmarks;
+
+import org.opencv.core.Mat;
+
+/**
+ * One unit of pipeline work to time. Implementations live in the default package next to the
+ * pipelines (see {@code PipelineWorkloads}), because JMH benchmarks cannot be declared there.
+ */
+public interface Workload {
+  /**
+   * Prepares the workload for a corpus frame, running any earlier stages it depends on.
+   */
+  void setUp(Mat frame);
+
+  /**
+   * Runs the timed work once.
+   */
+  Object run();
+}
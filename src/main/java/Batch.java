@@ -0,0 +1,176 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+import edu.wpi.first.vision.VisionPipeline;
+
+/**
+ * Benchmarks one pipeline over recorded frames without /boot/frc.json, cameras or a
+ * NetworkTables connection, and prints the results as JSON, so builds can be compared on the Pi
+ * or a laptop away from the robot. The frames are decoded into memory first; then, after the
+ * warm-up passes, each pass runs every frame through the pipeline once, and only the
+ * {@code process} calls are timed. The pipeline still writes its entries to the default
+ * NetworkTables instance, which is never started, so they go nowhere.
+ *
+ * <p>The JSON holds the throughput, latency percentiles, the Java heap allocated per frame on
+ * the benchmark thread (where the JVM can measure it) and native memory before and after the
+ * timed passes. Progress goes to stderr.</p>
+ *
+ * <pre>
+ *   java -cp java-multiCameraServer-all.jar Batch &lt;pipeline&gt; &lt;image dir or video&gt; [passes] [warm-up passes]
+ * </pre>
+ *
+ * <p>The pipeline is one of the names {@link PipelineRegistry} knows: grip, oldgrip, circles
+ * or combined.</p>
+ */
+public final class Batch {
+  /** Latency samples kept for the percentiles; longer runs use the most recent. */
+  private static final int MAX_SAMPLES = 1 << 20;
+
+  private Batch() {
+  }
+
+  /**
+   * Main.
+   */
+  public static void main(String... args) {
+    if (args.length < 2) {
+      System.err.println("usage: Batch <grip|oldgrip|circles|combined> <image dir or video> [passes] [warm-up passes]");
+      System.exit(2);
+    }
+    String name = args[0];
+    File path = new File(args[1]);
+    int passes = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    int warmupPasses = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+
+    // the target pairing only runs in vision mode
+    PipelineTuning.set(PipelineParameters.Tunable.VISION_MODE, true);
+    VisionPipeline pipeline;
+    try {
+      pipeline = PipelineRegistry.build(name, new PipelineRegistry.Context(null, null));
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.exit(2);
+      return;
+    }
+    List<Mat> frames = load(path);
+    if (frames.isEmpty()) {
+      System.err.println("no frames in '" + path + "'");
+      System.exit(2);
+    }
+    System.err.printf("%s: %d frames, %d warm-up and %d timed passes%n", name, frames.size(), warmupPasses, passes);
+
+    // some pipelines draw on their input, so each frame is copied before it is processed
+    Mat working = new Mat();
+    for (int pass = 0; pass < warmupPasses; pass++) {
+      for (Mat frame : frames) {
+        frame.copyTo(working);
+        pipeline.process(working);
+      }
+    }
+
+    LatencyHistogram latency = new LatencyHistogram((int) Math.min(MAX_SAMPLES, (long) passes * frames.size()));
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+        ? (com.sun.management.ThreadMXBean) threads : null;
+    long thread = Thread.currentThread().getId();
+    long residentBefore = NativeMemory.residentBytes();
+    long outsideJvmBefore = NativeMemory.outsideJvmBytes();
+    long allocatedBefore = allocation != null ? allocation.getThreadAllocatedBytes(thread) : 0;
+    long processNanos = 0;
+    long start = System.nanoTime();
+    for (int pass = 0; pass < passes; pass++) {
+      for (Mat frame : frames) {
+        frame.copyTo(working);
+        long frameStart = System.nanoTime();
+        pipeline.process(working);
+        long frameNanos = System.nanoTime() - frameStart;
+        latency.record(frameNanos);
+        processNanos += frameNanos;
+      }
+      System.err.printf("pass %d/%d%n", pass + 1, passes);
+    }
+    long wallNanos = System.nanoTime() - start;
+    long allocatedAfter = allocation != null ? allocation.getThreadAllocatedBytes(thread) : 0;
+    long count = (long) passes * frames.size();
+
+    JsonObject result = new JsonObject();
+    result.addProperty("pipeline", name);
+    result.addProperty("frames", path.getPath());
+    result.addProperty("frameCount", frames.size());
+    result.addProperty("passes", passes);
+    result.addProperty("warmupPasses", warmupPasses);
+
+    JsonObject environment = new JsonObject();
+    environment.addProperty("java", System.getProperty("java.version"));
+    environment.addProperty("vm", System.getProperty("java.vm.name"));
+    environment.addProperty("os", System.getProperty("os.name"));
+    environment.addProperty("arch", System.getProperty("os.arch"));
+    environment.addProperty("processors", Runtime.getRuntime().availableProcessors());
+    result.add("environment", environment);
+
+    JsonObject throughput = new JsonObject();
+    throughput.addProperty("frames", count);
+    throughput.addProperty("seconds", wallNanos / 1e9);
+    throughput.addProperty("fps", count > 0 ? count / (wallNanos / 1e9) : 0);
+    result.add("throughput", throughput);
+
+    double[] percentiles = latency.summarize(new double[4]);
+    JsonObject latencyMs = new JsonObject();
+    latencyMs.addProperty("mean", count > 0 ? processNanos / 1e6 / count : 0);
+    latencyMs.addProperty("p50", percentiles[0]);
+    latencyMs.addProperty("p95", percentiles[1]);
+    latencyMs.addProperty("p99", percentiles[2]);
+    latencyMs.addProperty("max", percentiles[3]);
+    result.add("latencyMs", latencyMs);
+
+    if (allocation != null && count > 0) {
+      JsonObject allocated = new JsonObject();
+      long bytes = allocatedAfter - allocatedBefore;
+      allocated.addProperty("bytesPerFrame", bytes / (double) count);
+      allocated.addProperty("megabytesPerSecond", bytes / 1048576.0 / (wallNanos / 1e9));
+      result.add("allocation", allocated);
+    }
+
+    JsonObject nativeMemory = new JsonObject();
+    if (residentBefore >= 0) {
+      long residentAfter = NativeMemory.residentBytes();
+      nativeMemory.addProperty("residentBytes", residentAfter);
+      nativeMemory.addProperty("residentGrowthBytes", residentAfter - residentBefore);
+      nativeMemory.addProperty("outsideJvmGrowthBytes", NativeMemory.outsideJvmBytes() - outsideJvmBefore);
+    }
+    MatPool pool = MatPool.getInstance();
+    nativeMemory.addProperty("poolBytes", pool.getOutstandingBytes() + pool.getPooledBytes());
+    if (pipeline instanceof GripPipeline) {
+      nativeMemory.addProperty("pipelineBytes", ((GripPipeline) pipeline).nativeBytes());
+    }
+    result.add("nativeMemory", nativeMemory);
+
+    System.out.println(new GsonBuilder().setPrettyPrinting().create().toJson(result));
+    // the pipeline may have started non-daemon threads
+    System.exit(0);
+  }
+
+  /**
+   * Decodes every frame of an image directory or video into memory.
+   */
+  static List<Mat> load(File path) {
+    ReplayFrameSource source = new ReplayFrameSource(path, false);
+    List<Mat> frames = new ArrayList<>();
+    Mat frame = new Mat();
+    // a frame time of 0 means the end of the recording
+    while (source.grabFrame(frame) != 0) {
+      frames.add(frame.clone());
+    }
+    frame.release();
+    return frames;
+  }
+}
@@ -7,24 +7,21 @@
 
 import org.opencv.core.Mat;
 
-import edu.wpi.cscore.CvSink;
 import edu.wpi.cscore.VideoSource;
 import edu.wpi.first.cameraserver.CameraServerSharedStore;
-import edu.wpi.first.networktables.NetworkTable;
-import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.vision.VisionPipeline;
 
 /**
  * Add your docs here.
  */
 public class BetterVisionRunner<P extends VisionPipeline> {
-    private final CvSink imgFeed = new CvSink("VisionRunner CvSink");
+    private final FrameSource imgFeed;
     private final P pipeline;
-    private final Mat image = new Mat();
+    private Mat image = new Mat();
     private final Listener<? super P> listener;
     private volatile boolean enabled = true;
-    private VideoSource frontCam, backCam;
-    private NetworkTable table = NetworkTableInstance.getDefault().getTable("RaspberryPi");
+    private FrameStats stats;
+    private FlightRecorder recorder;
   
     /**
      * Listener interface for a callback that should run after a pipeline has processed its input.
@@ -55,11 +52,40 @@ public class BetterVisionRunner<P extends VisionPipeline> {
      * @param listener    a function to call after the pipeline has finished running
      */
     public BetterVisionRunner(VideoSource frontCam, VideoSource backCam, P pipeline, Listener<? super P> listener) {
+      this(new CameraFrameSource(frontCam, backCam), pipeline, listener);
+    }
+
+    /**
+     * Creates a new vision runner that takes its images from an arbitrary frame source, such
+     * as a {@link ReplayFrameSource} playing back recorded frames.
+     *
+     * @param frameSource the source to supply images for the pipeline
+     * @param pipeline    the vision pipeline to run
+     * @param listener    a function to call after the pipeline has finished running
+     */
+    public BetterVisionRunner(FrameSource frameSource, P pipeline, Listener<? super P> listener) {
+      this.imgFeed = frameSource;
       this.pipeline = pipeline;
       this.listener = listener;
-      imgFeed.setSource(frontCam);
-      this.frontCam = frontCam;
-      this.backCam = backCam;
+    }
+  
+    /**
+     * Records the frame rate and latency of every frame the listener has handled.
+     *
+     * @param stats the stats to record into, or null to stop recording
+     */
+    public void setStats(FrameStats stats) {
+      this.stats = stats;
+    }
+
+    /**
+     * Records every processed frame, with its capture time and result, unless the recorder is
+     * behind, in which case frames are dropped rather than waited for.
+     *
+     * @param recorder the recorder, or null to stop recording
+     */
+    public void setRecorder(FlightRecorder recorder) {
+      this.recorder = recorder;
     }
   
     /**
@@ -84,7 +110,6 @@ public class BetterVisionRunner<P extends VisionPipeline> {
     }
   
     private void runOnceInternal() {
-        setImgFeed();
         long frameTime = imgFeed.grabFrame(image);
         if (frameTime == 0) {
             // There was an error, report it
@@ -92,15 +117,21 @@ public class BetterVisionRunner<P extends VisionPipeline> {
             CameraServerSharedStore.getCameraServerShared().reportDriverStationError(error);
         } else {
             // No errors, process the image
+            if (pipeline instanceof TimestampedPipeline) {
+              ((TimestampedPipeline) pipeline).setFrameTime(frameTime);
+            }
             pipeline.process(image);
             listener.copyPipelineOutputs(pipeline);
+            if (stats != null) {
+              stats.recordFrame(frameTime);
+            }
+            if (recorder != null) {
+              // the recorder keeps the frame and hands back an idle Mat for the next one
+              image = recorder.record(image, frameTime, pipeline);
+            }
         }
     }
 
-    private void setImgFeed(){
-        imgFeed.setSource(table.getEntry("Reverse Drive").getBoolean(false) ? backCam : frontCam);
-    }
-  
     /**
      * A convenience method that calls {@link #runOnce()} in an infinite loop. This must
      * be run in a dedicated thread, and cannot be used in the main robot thread because
@@ -0,0 +1,63 @@
+import org.opencv.core.Mat;
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.VideoSource;
+
+/**
+ * Live frame source that reads from the front or back camera, switching on the
+ * "Reverse Drive" entry before every frame, or from a single fixed camera.
+ */
+public class CameraFrameSource implements FrameSource {
+  private final CvSink imgFeed;
+  private final VideoSource frontCam, backCam;
+  private final PipelineTuning tuning = PipelineTuning.getInstance();
+  private VideoSource selected;
+
+  public CameraFrameSource(VideoSource frontCam, VideoSource backCam) {
+    this(new CvSink("VisionRunner CvSink"), frontCam, backCam);
+  }
+
+  /**
+   * Creates a source that always reads from {@code camera}.
+   */
+  public CameraFrameSource(VideoSource camera) {
+    this(new CvSink("VisionRunner CvSink " + camera.getName()), camera, camera);
+  }
+
+  private CameraFrameSource(CvSink imgFeed, VideoSource frontCam, VideoSource backCam) {
+    this.imgFeed = imgFeed;
+    this.frontCam = frontCam;
+    this.backCam = backCam;
+    imgFeed.setSource(frontCam);
+    selected = frontCam;
+  }
+
+  @Override
+  public long grabFrame(Mat image) {
+    if (frontCam != backCam) {
+      setImgFeed();
+    }
+    return imgFeed.grabFrame(image);
+  }
+
+  @Override
+  public long grabFrame(Mat image, double timeout) {
+    if (frontCam != backCam) {
+      setImgFeed();
+    }
+    return imgFeed.grabFrame(image, timeout);
+  }
+
+  @Override
+  public String getError() {
+    return imgFeed.getError();
+  }
+
+  private void setImgFeed() {
+    VideoSource camera = tuning.get().reverseDrive ? backCam : frontCam;
+    if (camera != selected) {
+      imgFeed.setSource(camera);
+      selected = camera;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+import org.opencv.core.Mat;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+
+/**
+ * Runs the three pipelines on every frame as one {@link StageGraph}:
+ *
+ * <ul>
+ * <li>hatch targets: {@link GripPipeline}, straight from the frame</li>
+ * <li>cargo: the stages {@link Main.MyPipeline} declares, gray, median blur and HoughCircles</li>
+ * <li>bright blobs: the stages {@link OldGripPipeline} declares, gray, box blur, threshold and
+ * filtered contours</li>
+ * </ul>
+ *
+ * <p>The cargo and blob stages are declared by those pipelines themselves, so tuning either one
+ * changes it here too. The gray conversion is shared by the cargo and blob branches, and the
+ * GripPipeline branch runs alongside them, so all three cost little more than the slowest one.
+ * Hatch results come from {@link #getGrip}; "Cargo Count", "Cargo Offset" (the largest ball, in
+ * the same orientation as the hatch offsets, or 0 with none) and "Blob Count" are published in
+ * the output table.</p>
+ */
+public class CombinedPipeline implements TimestampedPipeline, OverlaySource {
+  private final GripPipeline grip;
+  private final OldGripPipeline blobs = new OldGripPipeline();
+  private final StageGraph graph = new StageGraph();
+  private final String circlesStage;
+  private final NetworkTableEntry cargoCountEntry, cargoOffsetEntry, blobCountEntry;
+
+  /**
+   * Creates the combined pipeline for a camera.
+   *
+   * @param upsideDown  whether the camera is mounted upside down, or null to follow "Reverse Drive"
+   * @param outputTable the table to publish in, or null for RaspberryPi
+   */
+  public CombinedPipeline(Boolean upsideDown, NetworkTable outputTable) {
+    grip = new GripPipeline(upsideDown, outputTable);
+    NetworkTable table = outputTable != null ? outputTable
+        : NetworkTableInstance.getDefault().getTable("RaspberryPi");
+    cargoCountEntry = table.getEntry("Cargo Count");
+    cargoOffsetEntry = table.getEntry("Cargo Offset");
+    blobCountEntry = table.getEntry("Blob Count");
+
+    graph.add("hatch targets", (in, out) -> grip.process(in[0]), StageGraph.FRAME);
+    circlesStage = Main.MyPipeline.declare(graph);
+    blobs.declare(graph);
+  }
+
+  @Override
+  public void setFrameTime(long frameTime) {
+    grip.setFrameTime(frameTime);
+  }
+
+  @Override
+  public void process(Mat image) {
+    graph.run(image);
+    Mat circles = graph.output(circlesStage);
+    int cargo = circles.cols();
+    double offset = 0;
+    if (cargo > 0) {
+      double largestRadius = -1;
+      for (int i = 0; i < cargo; i++) {
+        double[] c = circles.get(0, i);
+        if (c[2] > largestRadius) {
+          largestRadius = c[2];
+          offset = 0.5 - c[0] / image.width();
+        }
+      }
+      if (grip.wasUpsideDown()) {
+        offset = -offset;
+      }
+    }
+    cargoCountEntry.setDouble(cargo);
+    cargoOffsetEntry.setDouble(offset);
+    blobCountEntry.setDouble(blobs.filterContoursOutput().size());
+  }
+
+  /**
+   * Gets the GripPipeline finding the hatch targets.
+   */
+  public GripPipeline getGrip() {
+    return grip;
+  }
+
+  @Override
+  public void snapshotOverlay(OverlayRenderer.Snapshot snapshot) {
+    grip.snapshotOverlay(snapshot);
+    snapshot.setCircles(graph.output(circlesStage), grip.wasUpsideDown());
+  }
+}
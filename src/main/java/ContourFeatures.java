@@ -0,0 +1,80 @@
+import org.opencv.core.MatOfPoint;
+
+/**
+ * Everything target selection needs to know about one contour, worked out in a single pass over
+ * its points. Instances are pooled and refilled every frame by {@link #compute}, so no points are
+ * boxed or copied into lists.
+ */
+public final class ContourFeatures {
+  /** The contour these features describe, and its index in the list it was filtered into. */
+  public MatOfPoint contour;
+  public int index;
+  /** Bounding box, inclusive of the extreme pixels. */
+  public int minX, maxX, minY, maxY;
+  /** The contour's first point, where findContours started tracing it. */
+  public int firstX, firstY;
+  /** The y coordinates of the first leftmost point and the last rightmost point. */
+  public int leftmostY, rightmostY;
+  /** True for a "/" strip: its leftmost point is lower in the image than its rightmost. */
+  public boolean tiltedClockwise;
+  /** Area and area centroid of the polygon. */
+  public double area, centroidX, centroidY;
+  public int vertices;
+
+  /**
+   * Fills in the features of a contour.
+   *
+   * @param contour  the contour
+   * @param points   its points as x0, y0, x1, y1, ...
+   * @param vertices the number of points
+   */
+  public void compute(MatOfPoint contour, int[] points, int vertices) {
+    this.contour = contour;
+    this.vertices = vertices;
+    firstX = points[0];
+    firstY = points[1];
+    minX = maxX = firstX;
+    minY = maxY = firstY;
+    leftmostY = rightmostY = firstY;
+    long twiceArea = 0;
+    double momentX = 0, momentY = 0;
+    int prevX = points[2 * vertices - 2], prevY = points[2 * vertices - 1];
+    for (int j = 0; j < 2 * vertices; j += 2) {
+      final int x = points[j], y = points[j + 1];
+      if (x < minX) {
+        minX = x;
+        leftmostY = y;
+      }
+      if (x >= maxX) {
+        maxX = x;
+        rightmostY = y;
+      }
+      minY = Math.min(minY, y);
+      maxY = Math.max(maxY, y);
+      final long cross = (long) prevX * y - (long) x * prevY;
+      twiceArea += cross;
+      momentX += (double) (prevX + x) * cross;
+      momentY += (double) (prevY + y) * cross;
+      prevX = x;
+      prevY = y;
+    }
+    area = Math.abs(twiceArea) / 2.0;
+    if (twiceArea != 0) {
+      centroidX = momentX / (3.0 * twiceArea);
+      centroidY = momentY / (3.0 * twiceArea);
+    } else {
+      centroidX = (minX + maxX) / 2.0;
+      centroidY = (minY + maxY) / 2.0;
+    }
+    // same test as GripPipeline.isTiltedClockwise, which compares the ends of the points sorted by x
+    tiltedClockwise = leftmostY > rightmostY;
+  }
+
+  public int width() {
+    return maxX - minX + 1;
+  }
+
+  public int height() {
+    return maxY - minY + 1;
+  }
+}
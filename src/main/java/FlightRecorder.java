@@ -0,0 +1,272 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+import edu.wpi.first.vision.VisionPipeline;
+
+/**
+ * Keeps the most recent camera frames, with their capture times and packed results, in
+ * a preallocated ring file, so what the cameras saw can be looked at after a match. Export the
+ * ring to images with {@link FlightRecorderExport}.
+ *
+ * <p>The vision thread never copies a frame: {@link #record} swaps the frame it has just
+ * processed for an idle staging Mat and returns, and a background thread copies the staged frame
+ * into the next slot of the memory-mapped file. If every staging Mat is still waiting to be
+ * written, or the frame is bigger than a slot, the frame is dropped instead. Nothing is allocated
+ * per frame once the staging Mats have the camera's size. Writes go to the page cache, which the
+ * kernel writes back to the card on its own schedule.</p>
+ *
+ * <p>A 256 MB ring holds about 30 seconds of 416x240 frames at 30 fps. The file is a header
+ * followed by fixed-size slots, all big-endian:</p>
+ *
+ * <pre>
+ *   header: long magic, int version, int slot count, int slot size, int unused, long next sequence
+ *   slot:   long sequence (0 while empty or being written), long frame time, int rows, int cols,
+ *           int type, int result length, double[MAX_RESULT] packed {@link VisionResult},
+ *           pixel data
+ * </pre>
+ *
+ * <p>Frames are recorded after the pipeline has run, so a pipeline that draws on its input
+ * frame is recorded with its drawing. The recorder continues an existing ring of the same
+ * layout, so frames from before a restart are kept until they are overwritten.</p>
+ */
+public class FlightRecorder {
+  static final long MAGIC = 0x46524346_4C495445L;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 64;
+  static final int SLOT_COUNT_OFFSET = 12, SLOT_SIZE_OFFSET = 16, NEXT_SEQUENCE_OFFSET = 24;
+  /** Packed results are cut to this many values, 8 targets. */
+  static final int MAX_RESULT = VisionResult.TARGETS + 16;
+  static final int SLOT_HEADER_SIZE = 32 + 8 * MAX_RESULT;
+  /** Frames that can wait for the writer before new ones are dropped. */
+  private static final int STAGING_DEPTH = 2;
+  private static final int PUBLISH_INTERVAL = 30;
+
+  private static final class Staged {
+    Mat image = new Mat();
+    long frameTime;
+    final double[] result = new double[MAX_RESULT];
+    int resultLength;
+  }
+
+  private final File file;
+  private final long fileSize;
+  private final int slotSize;
+  private final int slotCount;
+  private final Thread thread;
+  private final NetworkTableEntry writtenEntry, droppedEntry;
+
+  // guarded by this
+  private final Staged[] idle = new Staged[STAGING_DEPTH];
+  private int idleCount;
+  private final Staged[] queue = new Staged[STAGING_DEPTH];
+  private int queueHead, queueCount;
+  private boolean ready;
+  private long offered;
+
+  private volatile long written, dropped; // only changed while holding this
+  private volatile boolean enabled = true;
+
+  // writer thread only
+  private ByteBuffer buffer;
+  private boolean writeFailed;
+  private byte[] pixels = new byte[0];
+  private long nextSequence;
+
+  /**
+   * Starts a recorder. The file is created, or resized and cleared if its layout differs, on
+   * the writer thread, and frames are dropped until it is ready.
+   *
+   * @param file          the ring file
+   * @param megabytes     the size of the ring file
+   * @param maxFrameBytes the largest frame to record, in bytes, which sets the slot size
+   * @param statsTable    the table to publish "Recorder Written" and "Recorder Dropped" in, or
+   *                      null not to publish them
+   */
+  public FlightRecorder(File file, int megabytes, int maxFrameBytes, NetworkTable statsTable) {
+    this.file = file;
+    slotSize = SLOT_HEADER_SIZE + maxFrameBytes;
+    // one mapping, so the file must stay under 2 GB
+    fileSize = Math.min((long) megabytes << 20, Integer.MAX_VALUE);
+    slotCount = (int) ((fileSize - HEADER_SIZE) / slotSize);
+    if (slotCount < 1) {
+      throw new IllegalArgumentException("a " + megabytes + " MB ring can't hold a " + maxFrameBytes + " byte frame");
+    }
+    while (idleCount < STAGING_DEPTH) {
+      idle[idleCount++] = new Staged();
+    }
+    writtenEntry = statsTable != null ? statsTable.getEntry("Recorder Written") : null;
+    droppedEntry = statsTable != null ? statsTable.getEntry("Recorder Dropped") : null;
+    thread = new Thread(this::writeLoop, "Flight Recorder");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  /**
+   * Records a frame the pipeline has just processed, or drops it if the writer is behind.
+   *
+   * @param image     the frame; the caller must not use it again
+   * @param frameTime its capture time
+   * @param pipeline  the pipeline that processed it, whose GripPipeline result is recorded
+   * @return the Mat to grab the next frame into, which is {@code image} if it was dropped
+   */
+  public synchronized Mat record(Mat image, long frameTime, VisionPipeline pipeline) {
+    if (++offered % PUBLISH_INTERVAL == 0) {
+      publish();
+    }
+    if (!ready || idleCount == 0) {
+      dropped++;
+      return image;
+    }
+    Staged stage = idle[--idleCount];
+    Mat spare = stage.image;
+    stage.image = image;
+    stage.frameTime = frameTime;
+    GripPipeline grip = pipeline instanceof SwitchingPipeline ? ((SwitchingPipeline) pipeline).getGrip()
+        : pipeline instanceof GripPipeline ? (GripPipeline) pipeline : null;
+    stage.resultLength = grip != null
+        ? ResultPublisher.pack(grip, offered, NetworkTablesJNI.now(), stage.result) : 0;
+    queue[(queueHead + queueCount++) % STAGING_DEPTH] = stage;
+    notifyAll();
+    return spare;
+  }
+
+  public long getWritten() {
+    return written;
+  }
+
+  public long getDropped() {
+    return dropped;
+  }
+
+  /**
+   * Stops the writer thread once it has finished the frame it is writing.
+   */
+  public void stop() {
+    enabled = false;
+    thread.interrupt();
+  }
+
+  private void writeLoop() {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      MappedByteBuffer mapped = open(raf);
+      buffer = mapped;
+      synchronized (this) {
+        ready = true;
+      }
+      while (enabled) {
+        Staged stage;
+        synchronized (this) {
+          while (queueCount == 0) {
+            wait();
+          }
+          stage = queue[queueHead];
+          queueHead = (queueHead + 1) % STAGING_DEPTH;
+          queueCount--;
+        }
+        boolean wrote = false;
+        try {
+          wrote = write(stage);
+        } catch (RuntimeException ex) {
+          // one bad frame is dropped rather than stopping the recording
+          if (!writeFailed) {
+            writeFailed = true;
+            System.err.println("flight recorder: could not write a frame to '" + file
+                + "', counting frames that fail as dropped");
+            ex.printStackTrace();
+          }
+        }
+        synchronized (this) {
+          if (wrote) {
+            written++;
+          } else {
+            dropped++;
+          }
+          idle[idleCount++] = stage;
+        }
+      }
+      mapped.force();
+    } catch (InterruptedException ex) {
+      // stopped
+    } catch (IOException ex) {
+      System.err.println("flight recorder: could not map " + (fileSize >> 20) + " MB of '" + file
+          + "', recording is off: " + ex);
+    } catch (RuntimeException ex) {
+      System.err.println("flight recorder: stopped recording to '" + file + "'");
+      ex.printStackTrace();
+    }
+  }
+
+  /**
+   * Maps the ring file, continuing it if it has this layout and clearing it otherwise.
+   */
+  private MappedByteBuffer open(RandomAccessFile raf) throws IOException {
+    boolean fresh = raf.length() != fileSize;
+    raf.setLength(fileSize);
+    MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+    if (!fresh && mapped.getLong(0) == MAGIC && mapped.getInt(8) == VERSION
+        && mapped.getInt(SLOT_COUNT_OFFSET) == slotCount && mapped.getInt(SLOT_SIZE_OFFSET) == slotSize) {
+      nextSequence = mapped.getLong(NEXT_SEQUENCE_OFFSET);
+      return mapped;
+    }
+    // only the sequences need clearing for the old contents to be ignored
+    for (int i = 0; i < slotCount; i++) {
+      mapped.putLong(HEADER_SIZE + i * slotSize, 0);
+    }
+    mapped.putLong(0, MAGIC);
+    mapped.putInt(8, VERSION);
+    mapped.putInt(SLOT_COUNT_OFFSET, slotCount);
+    mapped.putInt(SLOT_SIZE_OFFSET, slotSize);
+    nextSequence = 1;
+    mapped.putLong(NEXT_SEQUENCE_OFFSET, nextSequence);
+    mapped.force();
+    return mapped;
+  }
+
+  private boolean write(Staged stage) {
+    Mat image = stage.image;
+    int bytes = (int) (image.total() * image.elemSize());
+    if (bytes == 0 || bytes > slotSize - SLOT_HEADER_SIZE || !image.isContinuous()
+        || CvType.depth(image.type()) != CvType.CV_8U) {
+      return false;
+    }
+    if (pixels.length < bytes) {
+      pixels = new byte[bytes];
+    }
+    image.get(0, 0, pixels);
+    long sequence = nextSequence++;
+    int slot = HEADER_SIZE + (int) ((sequence - 1) % slotCount) * slotSize;
+    // the sequence goes last, so a slot half written when the power went is skipped on export
+    buffer.putLong(slot, 0);
+    buffer.putLong(slot + 8, stage.frameTime);
+    buffer.putInt(slot + 16, image.rows());
+    buffer.putInt(slot + 20, image.cols());
+    buffer.putInt(slot + 24, image.type());
+    buffer.putInt(slot + 28, stage.resultLength);
+    for (int i = 0; i < stage.resultLength; i++) {
+      buffer.putDouble(slot + 32 + 8 * i, stage.result[i]);
+    }
+    buffer.position(slot + SLOT_HEADER_SIZE);
+    buffer.put(pixels, 0, bytes);
+    buffer.putLong(slot, sequence);
+    buffer.putLong(NEXT_SEQUENCE_OFFSET, nextSequence);
+    return true;
+  }
+
+  private void publish() {
+    if (writtenEntry != null) {
+      writtenEntry.setDouble(written);
+      droppedEntry.setDouble(dropped);
+    }
+  }
+}
@@ -0,0 +1,116 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Turns a {@link FlightRecorder} ring file back into images, oldest first, named by capture
+ * time in microseconds so {@link Replay} plays them on their original schedule. The recorded
+ * results are written next to them as results.csv.
+ *
+ * <pre>
+ *   java -cp java-multiCameraServer-all.jar FlightRecorderExport &lt;ring file&gt; &lt;output dir&gt;
+ * </pre>
+ */
+public final class FlightRecorderExport {
+  static {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  private FlightRecorderExport() {
+  }
+
+  /**
+   * Main.
+   */
+  public static void main(String... args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("usage: FlightRecorderExport <ring file> <output dir>");
+      System.exit(2);
+    }
+    File out = new File(args[1]);
+    if (!out.isDirectory() && !out.mkdirs()) {
+      System.err.println("could not create '" + out + "'");
+      System.exit(2);
+    }
+
+    try (RandomAccessFile raf = new RandomAccessFile(args[0], "r");
+        PrintWriter csv = new PrintWriter(new File(out, "results.csv"), "UTF-8")) {
+      MappedByteBuffer ring = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      if (raf.length() < FlightRecorder.HEADER_SIZE || ring.getLong(0) != FlightRecorder.MAGIC
+          || ring.getInt(8) != FlightRecorder.VERSION) {
+        System.err.println("'" + args[0] + "' is not a flight recorder ring");
+        System.exit(1);
+      }
+      int slotCount = ring.getInt(FlightRecorder.SLOT_COUNT_OFFSET);
+      int slotSize = ring.getInt(FlightRecorder.SLOT_SIZE_OFFSET);
+
+      // oldest first; slots still being written when recording stopped have sequence 0
+      long[] order = new long[slotCount];
+      int frames = 0;
+      for (int i = 0; i < slotCount; i++) {
+        long sequence = ring.getLong(slot(i, slotSize));
+        if (sequence > 0) {
+          // the slot index fits in the low bits; sequences won't reach 2^40 frames
+          order[frames++] = (sequence << 24) | i;
+        }
+      }
+      Arrays.sort(order, 0, frames);
+
+      csv.println("sequence,frame time,latency ms,center offset,raw offset,target valid,contour count,target offsets,target scores");
+      byte[] pixels = new byte[0];
+      double[] packed = new double[FlightRecorder.MAX_RESULT];
+      for (int f = 0; f < frames; f++) {
+        int slot = slot((int) (order[f] & 0xFFFFFF), slotSize);
+        long frameTime = ring.getLong(slot + 8);
+        int rows = ring.getInt(slot + 16);
+        int cols = ring.getInt(slot + 20);
+        int type = ring.getInt(slot + 24);
+        int resultLength = ring.getInt(slot + 28);
+
+        Mat image = new Mat(rows, cols, type);
+        int bytes = (int) (image.total() * image.elemSize());
+        if (pixels.length < bytes) {
+          pixels = new byte[bytes];
+        }
+        ring.position(slot + FlightRecorder.SLOT_HEADER_SIZE);
+        ring.get(pixels, 0, bytes);
+        image.put(0, 0, pixels);
+        Imgcodecs.imwrite(new File(out, frameTime + ".png").getPath(), image);
+        image.release();
+
+        for (int i = 0; i < resultLength; i++) {
+          packed[i] = ring.getDouble(slot + 32 + 8 * i);
+        }
+        VisionResult result = VisionResult.decode(Arrays.copyOf(packed, resultLength));
+        csv.print((order[f] >>> 24) + "," + frameTime);
+        if (result != null) {
+          csv.print("," + result.latencyMs + "," + result.centerOffset + "," + result.rawOffset + ","
+              + result.targetValid + "," + result.contourCount + "," + join(result.targetOffsets)
+              + "," + join(result.targetScores));
+        }
+        csv.println();
+      }
+      System.err.println("exported " + frames + " frames to '" + out + "'");
+    }
+  }
+
+  private static int slot(int index, int slotSize) {
+    return FlightRecorder.HEADER_SIZE + index * slotSize;
+  }
+
+  private static String join(double[] values) {
+    StringBuilder joined = new StringBuilder();
+    for (int i = 0; i < values.length; i++) {
+      joined.append(i > 0 ? " " : "").append(values[i]);
+    }
+    return joined.toString();
+  }
+}
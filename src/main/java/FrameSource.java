@@ -0,0 +1,33 @@
+import org.opencv.core.Mat;
+
+/**
+ * A supplier of frames for a {@link BetterVisionRunner}. This mirrors the parts of
+ * {@link edu.wpi.cscore.CvSink} the runner uses, so live cameras and recorded frames
+ * can be fed through the same pipeline and listener path.
+ */
+public interface FrameSource {
+  /**
+   * Waits for the next frame and copies it into {@code image}.
+   *
+   * @param image the Mat to store the frame in
+   * @return the frame time in microseconds, or 0 on error
+   */
+  long grabFrame(Mat image);
+
+  /**
+   * Waits up to {@code timeout} seconds for the next frame and copies it into {@code image}.
+   * Sources that can't time out wait as long as {@link #grabFrame(Mat)} does.
+   *
+   * @param image   the Mat to store the frame in
+   * @param timeout the longest to wait, in seconds
+   * @return the frame time in microseconds, or 0 on error or timeout
+   */
+  default long grabFrame(Mat image, double timeout) {
+    return grabFrame(image);
+  }
+
+  /**
+   * Gets the error string for the last failed {@link #grabFrame} call.
+   */
+  String getError();
+}
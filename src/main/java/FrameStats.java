@@ -0,0 +1,63 @@
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+
+/**
+ * Frame rate and capture-to-output latency for a runner, published every few frames.
+ *
+ * <p>Entries: "FPS" (frames per second over the last publish interval), "Latency"
+ * ({p50, p95, p99, max} ms from capture to {@link #recordFrame}) and "Dropped Frames".</p>
+ */
+public class FrameStats {
+  private final LatencyHistogram latency = new LatencyHistogram(256);
+  private final double[] summary = new double[4];
+  private final NetworkTableEntry fpsEntry, latencyEntry, droppedEntry;
+  private final int publishInterval;
+  private long intervalStart = System.nanoTime();
+  private int frames;
+  private volatile long dropped;
+  private volatile double fps;
+
+  /**
+   * Creates stats published in {@code table} every {@code publishInterval} frames.
+   */
+  public FrameStats(NetworkTable table, int publishInterval) {
+    this.publishInterval = publishInterval;
+    fpsEntry = table.getEntry("FPS");
+    latencyEntry = table.getEntry("Latency");
+    droppedEntry = table.getEntry("Dropped Frames");
+  }
+
+  /**
+   * Records a frame that has made it all the way through the runner.
+   *
+   * @param frameTime the capture time of the frame in microseconds, on the
+   *                  {@link NetworkTablesJNI#now()} clock
+   */
+  public void recordFrame(long frameTime) {
+    latency.record((NetworkTablesJNI.now() - frameTime) * 1000);
+    if (++frames % publishInterval == 0) {
+      long now = System.nanoTime();
+      fps = publishInterval * 1e9 / (now - intervalStart);
+      intervalStart = now;
+      fpsEntry.setDouble(fps);
+      latencyEntry.setDoubleArray(latency.summarize(summary));
+      droppedEntry.setDouble(dropped);
+    }
+  }
+
+  /**
+   * Counts a frame that was captured but thrown away. Only one thread may call this.
+   */
+  public void recordDrop() {
+    dropped++;
+  }
+
+  public long getDroppedFrames() {
+    return dropped;
+  }
+
+  public double getFps() {
+    return fps;
+  }
+}
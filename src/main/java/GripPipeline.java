@@ -2,6 +2,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -21,6 +22,7 @@ import org.opencv.objdetect.*;
 import edu.wpi.first.vision.VisionPipeline;
 import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTablesJNI;
 
 /**
 * GripPipeline class.
@@ -29,139 +31,494 @@ import edu.wpi.first.networktables.NetworkTable;
 *
 * @author GRIP
 */
-public class GripPipeline implements VisionPipeline {
+public class GripPipeline implements TimestampedPipeline, OverlaySource {
 
-	//Outputs
-	private Mat hslThresholdOutput = new Mat();
-	private Mat blurOutput = new Mat();
+	//Outputs; the two Mats are borrowed from the pool, and replaced when the size searched changes
+	private Mat hslThresholdOutput;
+	private Mat blurOutput;
+	//the 3 channel HLS image the exact threshold reads, kept so it is only reborrowed when the size changes
+	private Mat hlsImg;
 	private ArrayList<MatOfPoint> findContoursOutput = new ArrayList<MatOfPoint>();
 	private ArrayList<MatOfPoint> filterContoursOutput = new ArrayList<MatOfPoint>();
 	public Mat outputImg = new Mat();
+	//flipped frames go here, never into the caller's Mat, which other stages may be reading
+	private final Mat orientedImg = new Mat();
+	private boolean frameUpsideDown;
 	private NetworkTable table = NetworkTableInstance.getDefault().getTable("RaspberryPi");
+	//where this pipeline's results and timings go; the RaspberryPi table unless it runs one camera of several
+	private final NetworkTable outputTable;
+	//null to follow "Reverse Drive", otherwise whether this pipeline's camera is mounted upside down
+	private final Boolean upsideDown;
+
+	//Per-stage timing, published under Stage Timing as {p50, p95, p99, max} ms
+	static final int ORIENT_STAGE = 0, HSL_THRESHOLD_STAGE = 1, BLUR_STAGE = 2, FIND_CONTOURS_STAGE = 3,
+		FILTER_CONTOURS_STAGE = 4, PAIRING_STAGE = 5, DOWNSCALE_STAGE = 6, COARSE_STAGE = 7, REFINE_STAGE = 8;
+	private final StageTimer timer;
+	//tunables for the frame being processed, swapped in once per frame
+	private final PipelineTuning tuning = PipelineTuning.getInstance();
+	private PipelineParameters params = tuning.get();
+	//set while warming up, so the target search is compiled whatever "Vision Mode" says
+	private PipelineParameters warmUpParams;
+	//set when consecutive frames go to different instances, which can't follow a target between them
+	private boolean independentFrames;
+	private PipelineParameters tunedParams, independentParams;
+
+	//Region-of-interest tracking: after a pair is found, search only a padded window around it
+	private final Rect roi = new Rect();
+	private boolean roiValid;
+	private int framesSinceFullSearch, roiAttempts, roiHits, roiReportFrames;
+	private final Point contourOffset = new Point();
+	private final LutSegmenter lutSegmenter = new LutSegmenter();
+	private final MatPool pool = MatPool.getInstance();
+	private final Mat hierarchy = new Mat();
+	//pooled Mats may be views into bigger buffers, so filters must not read past their edges
+	private static final Point DEFAULT_ANCHOR = new Point(-1, -1);
+	private static final int ISOLATED_BORDER = Core.BORDER_DEFAULT | Core.BORDER_ISOLATED;
+
+	//Set for frames processed without flipping the pixels; the debug image is flipped when snapshotted
+	private boolean resultsFlipped;
+	private final Rect rawRoi = new Rect();
+	private int[] flipBuffer = new int[512];
+	private double midpoint;
+
+	//Coarse-to-fine search buffers
+	private static final Size NO_SIZE = new Size();
+	private final Mat coarseImg = new Mat();
+	private final ArrayList<MatOfPoint> coarseCandidates = new ArrayList<MatOfPoint>();
+	private final ArrayList<MatOfPoint> refineContours = new ArrayList<MatOfPoint>();
+	private Rect[] refineRegions = {new Rect(), new Rect(), new Rect(), new Rect()};
 	static {
 		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
 	}
 
+	/**
+	 * Creates a pipeline for the switched front/back camera feed, which flips the image unless
+	 * "Reverse Drive" is set.
+	 */
+	public GripPipeline() {
+		this(null, null);
+	}
+
+	/**
+	 * Creates a pipeline dedicated to one camera.
+	 * @param upsideDown whether the camera is mounted upside down, or null to follow "Reverse Drive"
+	 * @param outputTable the table to publish the contour count and stage timings in, or null for RaspberryPi
+	 */
+	public GripPipeline(Boolean upsideDown, NetworkTable outputTable) {
+		this.upsideDown = upsideDown;
+		this.outputTable = outputTable != null ? outputTable : table;
+		timer = new StageTimer(this.outputTable.getSubTable("Stage Timing"), 30,
+			"orient", "hsl threshold", "blur", "find contours", "filter contours", "pairing", "downscale", "coarse", "refine");
+	}
+
 	/**
 	 * This is the primary method that runs the entire pipeline and updates the outputs.
 	 */
 	public double midOffset, sideOffset;
 	public void process(Mat source0) {
 		//outputImg = source0;
-		double startTime = System.currentTimeMillis();
+		timer.startFrame();
+		params = warmUpParams != null ? warmUpParams : tuning.get();
+		if(independentFrames && (params.tracking || params.roiTracking)){
+			//derived once per change of tunables, not per frame
+			if(params != tunedParams){
+				tunedParams = params;
+				independentParams = params.with(PipelineParameters.Tunable.TRACKING, false)
+					.with(PipelineParameters.Tunable.ROI_TRACKING, false);
+			}
+			params = independentParams;
+		}
+		processedFrameTime = frameTime != 0 ? frameTime : NetworkTablesJNI.now();
+		frameTime = 0;
+		
+		orientInput(source0);
+		timer.endStage(ORIENT_STAGE);
 		
-		if(!table.getEntry("Reverse Drive").getBoolean(false)){
-			Core.flip(source0,outputImg,-1);
+		//search around the last target pair when tracking, and the whole frame when that misses
+		boolean tracked = false;
+		if(params.visionMode && params.roiTracking && roiValid && framesSinceFullSearch < params.roiFullSearchInterval){
+			framesSinceFullSearch++;
+			roiAttempts++;
+			detect(roi);
+			tracked = filterContoursOutput.size() >= 2;
+			if(tracked){
+				roiHits++;
+			}
+		}
+		if(!tracked){
+			framesSinceFullSearch = 0;
+			if(params.pyramidScale > 0 && params.pyramidScale < 1){
+				detectCoarseToFine();
+			}else{
+				detect(null);
+			}
+		}
+
+		if(params.visionMode){
+			outputTable.getEntry("Contour Number").setNumber(filterContoursOutput.size());
+			roiValid = findTargetPair() && params.roiTracking && updateRoi();
+			outputTable.getEntry("Target Offsets").setDoubleArray(matcher.getOffsets());
+			outputTable.getEntry("Target Scores").setDoubleArray(matcher.getScores());
+			tracker.update(matcher, processedFrameTime, params);
+			timer.endStage(PAIRING_STAGE);
 		}else{
-			outputImg = source0;
+			roiValid = false;
+			tracker.reset();
 		}
-		
-		// Step HSL_Threshold0:
-		Mat hslThresholdInput = outputImg;
-		double[] hslThresholdHue = {64, 111};
-		double[] hslThresholdSaturation = {191, 255};
-		double[] hslThresholdLuminance = {78, 245};
-		hslThreshold(hslThresholdInput, hslThresholdHue, hslThresholdSaturation, hslThresholdLuminance, hslThresholdOutput);
+		if(++roiReportFrames % 30 == 0){
+			outputTable.getEntry("Pipeline Native Bytes").setDouble(nativeBytes());
+			if(roiAttempts > 0){
+				outputTable.getEntry("ROI Hit Rate").setDouble(roiHits / (double)roiAttempts);
+				roiAttempts = 0;
+				roiHits = 0;
+			}
+		}
+		timer.endFrame();
+	}
 
-		double hslTime = System.currentTimeMillis();
-		//System.out.println("hsl: " + (hslTime - startTime));
+	/**
+	 * Runs every frame in vision mode while warming up, and forgets the warm-up frames'
+	 * targets when it ends, so the first live frame starts from nothing.
+	 */
+	void setWarmingUp(boolean warmingUp) {
+		warmUpParams = warmingUp ? tuning.get().with(PipelineParameters.Tunable.VISION_MODE, true) : null;
+		if(!warmingUp){
+			//don't leave the synthetic frames' targets published until vision mode is next on
+			outputTable.getEntry("Contour Number").setNumber(0);
+			outputTable.getEntry("Target Offsets").setDoubleArray(new double[0]);
+			outputTable.getEntry("Target Scores").setDoubleArray(new double[0]);
+			tracker.reset();
+			matcher.clear();
+			midOffset = 0;
+			roiValid = false;
+			framesSinceFullSearch = 0;
+			roiAttempts = 0;
+			roiHits = 0;
+		}
+	}
 
-		// Step Blur0:
-		Mat blurInput = hslThresholdOutput;
-		BlurType blurType = BlurType.get("Box Blur");
-		double blurRadius = 2;
-		blur(blurInput, blurType, blurRadius, blurOutput);
+	/**
+	 * Treats every frame as unrelated to the one before, for runners that spread consecutive
+	 * frames over several instances: "Tracking" and "ROI Tracking" are then off whatever they
+	 * are set to, since each instance would only follow some of the frames.
+	 */
+	void setIndependentFrames(boolean independentFrames) {
+		this.independentFrames = independentFrames;
+	}
 
-		double blurTime = System.currentTimeMillis();
-		//System.out.println("blur: " + (blurTime - hslTime));
+	@Override
+	public void setFrameTime(long frameTime) {
+		this.frameTime = frameTime;
+	}
 
-		// Step Find_Contours0:
-		Mat findContoursInput = blurOutput;
-		boolean findContoursExternalOnly = false;
-		findContours(findContoursInput, findContoursExternalOnly, findContoursOutput);
+	/**
+	 * Gets the capture time of the last frame processed, in microseconds on the
+	 * NetworkTablesJNI.now() clock.
+	 */
+	public long getFrameTime() {
+		return processedFrameTime;
+	}
 
-		double findContoursTime = System.currentTimeMillis();
-		//System.out.println("find contours: " + (findContoursTime - blurTime));
+	/**
+	 * Gets whether the last frame came from an upside-down camera, so its results are rotated
+	 * 180 degrees from the raw frame.
+	 */
+	public boolean wasUpsideDown() {
+		return frameUpsideDown;
+	}
 
-		// Step Filter_Contours0:
-		ArrayList<MatOfPoint> filterContoursContours = findContoursOutput;
-		double filterContoursMinArea = 60.0;
-		double filterContoursMinPerimeter = 0;
-		double filterContoursMinWidth = 0;
-		double filterContoursMaxWidth = 1000;
-		double filterContoursMinHeight = 5.0;
-		double filterContoursMaxHeight = 1000;
-		double[] filterContoursSolidity = {79, 100.0};
-		double filterContoursMaxVertices = 1000000;
-		double filterContoursMinVertices = 0;
-		double filterContoursMinRatio = 0;
-		double filterContoursMaxRatio = 1000;
-		filterContours(filterContoursContours, filterContoursMinArea, filterContoursMinPerimeter, filterContoursMinWidth, filterContoursMaxWidth, filterContoursMinHeight, filterContoursMaxHeight, filterContoursSolidity, filterContoursMaxVertices, filterContoursMinVertices, filterContoursMinRatio, filterContoursMaxRatio, filterContoursOutput);
-		
-		double filterContoursTime = System.currentTimeMillis();
-		//System.out.println("filter contours: " + (filterContoursTime - findContoursTime));
-
-		if(table.getEntry("Vision Mode").getBoolean(false)){
-			Imgproc.line(outputImg, new Point(outputImg.width()/2,0), new Point(outputImg.width()/2, outputImg.height()), new Scalar(255,0,0), 1);
-			//Imgproc.circle(outputImg, new Point(outputImg.width()/2, outputImg.height()/2), 2, new Scalar(255,0,0), -1);
-			//Imgproc.drawContours(outputImg, filterContoursOutput, 0, new Scalar(0,0,255));
-			for (int i = 0; i <  filterContoursOutput.size(); i++){
-				Imgproc.drawContours(outputImg, filterContoursOutput, i , new Scalar(isTiltedClockwise(filterContoursOutput.get(i))? 0 : 255,0,255));
+	/**
+	 * Gets the matcher holding the last frame's ranked targets.
+	 */
+	public TargetMatcher getMatcher() {
+		return matcher;
+	}
+
+	/**
+	 * Gets the offset to publish as "Center Offset". With "Tracking" on this is the tracked target
+	 * predicted forward to {@code time}, held through short dropouts; otherwise it is this frame's
+	 * midOffset.
+	 * @param time the time it will be published, in microseconds on the NetworkTablesJNI.now() clock
+	 */
+	public double getCenterOffset(long time) {
+		return params.tracking ? tracker.predict(time) : midOffset;
+	}
+
+	/**
+	 * Gets whether getCenterOffset is following a target rather than reporting 0 for none.
+	 */
+	public boolean hasTarget() {
+		return params.tracking ? tracker.hasTarget() : matcher.getTargetCount() > 0;
+	}
+
+	/**
+	 * Publishes "Center Offset" predicted to now, this frame's "Raw Offset" and "Target Valid".
+	 */
+	public void publishTarget(NetworkTable table) {
+		table.getEntry("Center Offset").setNumber(getCenterOffset(NetworkTablesJNI.now()));
+		table.getEntry("Raw Offset").setNumber(midOffset);
+		table.getEntry("Target Valid").setBoolean(hasTarget());
+	}
+
+	/**
+	 * Publishes "Center Offset" and "Raw Offset" of 0 and "Target Valid" false, for frames that
+	 * another pipeline processed.
+	 */
+	public static void publishNoTarget(NetworkTable table) {
+		table.getEntry("Center Offset").setNumber(0);
+		table.getEntry("Raw Offset").setNumber(0);
+		table.getEntry("Target Valid").setBoolean(false);
+	}
+
+	/**
+	 * Copies the frame and its results for the debug overlay, which is drawn on the renderer's
+	 * thread. When the frame was processed unflipped, the copy is flipped to match the contours.
+	 */
+	@Override
+	public void snapshotOverlay(OverlayRenderer.Snapshot snapshot) {
+		snapshot.set(outputImg, resultsFlipped, params.visionMode, features, featureCount, matcher);
+	}
+
+	/**
+	 * Thresholds, blurs, finds and filters contours in part of outputImg. Contours are always in
+	 * full-frame coordinates.
+	 * @param region the part of the frame to search, or null for all of it
+	 */
+	private void detect(Rect region) {
+		Mat input = outputImg;
+		if(region != null){
+			if(resultsFlipped){
+				//the window is in upright coordinates but the pixels are still upside down
+				rawRoi.x = outputImg.width() - (region.x + region.width);
+				rawRoi.y = outputImg.height() - (region.y + region.height);
+				rawRoi.width = region.width;
+				rawRoi.height = region.height;
+				region = rawRoi;
 			}
-			table.getEntry("Contour Number").setNumber(filterContoursOutput.size());
-			if(filterContoursOutput.size() >= 2){
-				MatOfPoint[] targets = new MatOfPoint[2];
-				if(filterContoursOutput.size() == 2){
-					targets[0] = filterContoursOutput.get(0);
-					targets[1] = filterContoursOutput.get(1);
-				}else{
-					filterContoursOutput.sort(Comparator.comparingDouble((c) -> getDistFromCenter(c)));
-					//get middle 2 contours
-					int center = centerIndex(filterContoursOutput);
-					targets[0] = filterContoursOutput.get(center);
-					int secondTargetIndex = center + (isTiltedClockwise(targets[0]) ? 1 : -1);
-					targets[1] = filterContoursOutput.get(!(secondTargetIndex >= filterContoursOutput.size() || secondTargetIndex < 0) ? secondTargetIndex : center);
-					//if chosen contours are \ /, shift left in the list of contours
-					/*if(!(isTiltedClockwise(targets[0]) && !isTiltedClockwise(targets[1]))){
-						targets[1] = targets[0];
-						targets[0] = filterContoursOutput.get(filterContoursOutput.size()/2 - 1);
-					}*/
-				}
-				
-				ArrayList<Point> c1Points = new ArrayList<Point>();
-				c1Points.addAll(targets[0].toList());
-				ArrayList<Point> c2Points = new ArrayList<Point>();
-				c2Points.addAll(targets[1].toList());
-
-				ArrayList<Point> leftContour = c1Points.get(0).x < c2Points.get(0).x? c1Points : c2Points;
-				ArrayList<Point> rightContour = c1Points.get(0).x < c2Points.get(0).x? c2Points: c1Points;
-
-				double leftLargestX = leftContour.get(0).x;
-				for(int a = 1; a < leftContour.size(); a ++){
-					if(leftLargestX < leftContour.get(a).x){
-						leftLargestX = leftContour.get(a).x;
-					}
+			input = outputImg.submat(region);
+			contourOffset.x = region.x;
+			contourOffset.y = region.y;
+		}else{
+			contourOffset.x = 0;
+			contourOffset.y = 0;
+		}
+
+		// Step HSL_Threshold0:
+		hslThresholdStep(input);
+		timer.endStage(HSL_THRESHOLD_STAGE);
+		if(input != outputImg){
+			input.release();
+		}
+
+		// Step Blur0:
+		blurStep();
+		timer.endStage(BLUR_STAGE);
+
+		// Step Find_Contours0:
+		findContoursStep();
+		if(resultsFlipped){
+			flipContours(findContoursOutput, outputImg.width(), outputImg.height());
+		}
+		timer.endStage(FIND_CONTOURS_STAGE);
+
+		// Step Filter_Contours0:
+		filterContoursStep();
+		timer.endStage(FILTER_CONTOURS_STAGE);
+	}
+
+	/**
+	 * Searches the whole frame at a reduced resolution, then finds contours again at full
+	 * resolution inside the boxes where the coarse search found candidates, so midpoint edges
+	 * keep full-resolution precision while most of the frame is only processed downscaled.
+	 */
+	private void detectCoarseToFine() {
+		final double scale = params.pyramidScale;
+		Imgproc.resize(outputImg, coarseImg, NO_SIZE, scale, scale, Imgproc.INTER_AREA);
+		timer.endStage(DOWNSCALE_STAGE);
+
+		//coarse: the usual threshold, blur and contours, with size limits scaled down to match
+		hslThresholdStep(coarseImg);
+		blurStep();
+		contourOffset.x = 0;
+		contourOffset.y = 0;
+		findContoursStep();
+		filterContours(findContoursOutput, params.minArea * scale * scale, params.minPerimeter * scale, params.minWidth * scale, params.maxWidth * scale, params.minHeight * scale, params.maxHeight * scale, params.solidity, params.maxVertices, 0, params.minRatio, params.maxRatio, coarseCandidates);
+		timer.endStage(COARSE_STAGE);
+
+		//refine: each candidate's box, scaled up and padded, merged where boxes overlap
+		int regionCount = 0;
+		final int margin = (int)Math.ceil(params.refineMargin + params.blurRadius);
+		for (int i = 0; i < featureCount; i++) {
+			final ContourFeatures box = features[i];
+			int left = Math.max(0, (int)(box.minX / scale) - margin);
+			int top = Math.max(0, (int)(box.minY / scale) - margin);
+			int right = Math.min(outputImg.width(), (int)Math.ceil((box.maxX + 1) / scale) + margin);
+			int bottom = Math.min(outputImg.height(), (int)Math.ceil((box.maxY + 1) / scale) + margin);
+			for (int j = 0; j < regionCount; j++) {
+				final Rect other = refineRegions[j];
+				if (left < other.x + other.width && other.x < right && top < other.y + other.height && other.y < bottom) {
+					left = Math.min(left, other.x);
+					top = Math.min(top, other.y);
+					right = Math.max(right, other.x + other.width);
+					bottom = Math.max(bottom, other.y + other.height);
+					refineRegions[j] = refineRegions[--regionCount];
+					refineRegions[regionCount] = other;
+					j = -1;
 				}
-				double rightSmallestX = rightContour.get(0).x;
-				for(int a = 1; a < rightContour.size(); a ++){
-					if(rightSmallestX > rightContour.get(a).x){
-						rightSmallestX = rightContour.get(a).x;
-					}
+			}
+			if (regionCount == refineRegions.length) {
+				refineRegions = Arrays.copyOf(refineRegions, 2 * regionCount);
+				for (int j = regionCount; j < refineRegions.length; j++) {
+					refineRegions[j] = new Rect();
 				}
-				double midpoint = (rightSmallestX + leftLargestX)/2;
-				Imgproc.line(outputImg, new Point(midpoint,0), new Point(midpoint, outputImg.height()),new Scalar (0, 0, 255), 1);
-				//negative if center is to the left of midpoint
-				midOffset = 0.5 - (midpoint/outputImg.width());
-				//if offset is positive, want right contour
-				//sideOffset = 0.5 - (findAverageX(midOffset > 0? rightContour : leftContour)/outputImg.width());
-				
-				double findMiddleTime = System.currentTimeMillis();
-				//System.out.println("find center: " + (findMiddleTime- filterContoursTime));
+			}
+			final Rect region = refineRegions[regionCount++];
+			region.x = left;
+			region.y = top;
+			region.width = right - left;
+			region.height = bottom - top;
+		}
+		//the coarse contours are done with once their regions are known
+		coarseCandidates.clear();
+		NativeMemory.release(findContoursOutput);
+		for (int i = 0; i < regionCount; i++) {
+			final Rect region = refineRegions[i];
+			final Mat input = outputImg.submat(region);
+			hslThresholdStep(input);
+			input.release();
+			blurStep();
+			contourOffset.x = region.x;
+			contourOffset.y = region.y;
+			findContours(blurOutput, false, contourOffset, refineContours);
+			findContoursOutput.addAll(refineContours);
+			//now owned by findContoursOutput, so the next region must not release them
+			refineContours.clear();
+		}
+		if(resultsFlipped){
+			flipContours(findContoursOutput, outputImg.width(), outputImg.height());
+		}
+		filterContoursStep();
+		timer.endStage(REFINE_STAGE);
+	}
+
+	/**
+	 * Sets the tracking window to the last target pair's bounding box plus padding.
+	 * @return false if the window would cover the whole frame anyway
+	 */
+	private boolean updateRoi() {
+		int pad = (int)params.roiPadding;
+		int left = Math.max(0, Math.min(pairLeft.minX, pairRight.minX) - pad);
+		int top = Math.max(0, Math.min(pairLeft.minY, pairRight.minY) - pad);
+		int right = Math.min(outputImg.width(), Math.max(pairLeft.maxX, pairRight.maxX) + 1 + pad);
+		int bottom = Math.min(outputImg.height(), Math.max(pairLeft.maxY, pairRight.maxY) + 1 + pad);
+		roi.x = left;
+		roi.y = top;
+		roi.width = right - left;
+		roi.height = bottom - top;
+		return roi.area() < outputImg.total();
+	}
+
+	/**
+	 * Flips an upside-down camera's image the right way up into outputImg. With Flip Results
+	 * set, the pixels are left alone and the contours are rotated instead as they are found.
+	 */
+	void orientInput(Mat source0) {
+		resultsFlipped = false;
+		frameUpsideDown = upsideDown != null ? upsideDown : !params.reverseDrive;
+		if(frameUpsideDown){
+			if(params.flipResults){
+				outputImg = source0;
+				resultsFlipped = true;
 			}else{
-				midOffset = 0;
+				Core.flip(source0,orientedImg,-1);
+				outputImg = orientedImg;
 			}
+		}else{
+			outputImg = source0;
 		}
 	}
+
+	/**
+	 * Rotates contours found in an upside-down image by 180 degrees, giving the contours
+	 * findContours would have found in the flipped image. Each contour's points are turned
+	 * around and restarted at its top-left-most point, which is where findContours starts
+	 * tracing a border.
+	 */
+	private void flipContours(List<MatOfPoint> contours, int width, int height) {
+		for (int i = 0; i < contours.size(); i++) {
+			final MatOfPoint contour = contours.get(i);
+			final int vertices = contour.rows();
+			final int[] points = readPoints(contour, vertices);
+			int first = 0;
+			for (int j = 0; j < 2 * vertices; j += 2) {
+				points[j] = width - 1 - points[j];
+				points[j + 1] = height - 1 - points[j + 1];
+				if (points[j + 1] < points[first + 1] || (points[j + 1] == points[first + 1] && points[j] < points[first])) {
+					first = j;
+				}
+			}
+			if (flipBuffer.length < 2 * vertices) {
+				flipBuffer = new int[pointBuffer.length];
+			}
+			System.arraycopy(points, first, flipBuffer, 0, 2 * vertices - first);
+			System.arraycopy(points, 0, flipBuffer, 2 * vertices - first, first);
+			contour.put(0, 0, flipBuffer);
+		}
+	}
+
+	void hslThresholdStep(Mat hslThresholdInput) {
+		hslThresholdOutput = pool.reborrow(hslThresholdOutput, hslThresholdInput.rows(), hslThresholdInput.cols(), CvType.CV_8UC1);
+		if(params.lutSegmentation){
+			lutSegmenter.threshold(hslThresholdInput, params.hslLower, params.hslUpper, hslThresholdOutput);
+		}else{
+			hslThreshold(hslThresholdInput, params.hslLower, params.hslUpper, hslThresholdOutput);
+		}
+	}
+
+	void blurStep() {
+		blurOutput = pool.reborrow(blurOutput, hslThresholdOutput.rows(), hslThresholdOutput.cols(), CvType.CV_8UC1);
+		blur(hslThresholdOutput, params.blurType, params.blurRadius, blurOutput);
+	}
+
+	void findContoursStep() {
+		Mat findContoursInput = blurOutput;
+		boolean findContoursExternalOnly = false;
+		findContours(findContoursInput, findContoursExternalOnly, contourOffset, findContoursOutput);
+	}
+
+	void filterContoursStep() {
+		filterContours(findContoursOutput, params.minArea, params.minPerimeter, params.minWidth, params.maxWidth, params.minHeight, params.maxHeight, params.solidity, params.maxVertices, params.minVertices, params.minRatio, params.maxRatio, filterContoursOutput);
+	}
+
+	/**
+	 * Ranks the "/ \" pairs among the filtered contours with the target matcher, and sets
+	 * midOffset from the gap in the best one.
+	 * @return whether a pair was found
+	 */
+	boolean findTargetPair() {
+		if(matcher.match(features, featureCount, outputImg.width(), params) > 0){
+			pairLeft = matcher.getLeft(0);
+			pairRight = matcher.getRight(0);
+			midpoint = matcher.getMidpoint(0);
+			midOffset = matcher.getOffset(0);
+			return true;
+		}else{
+			midOffset = 0;
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the features of the contours that passed the filter, in filterContoursOutput order.
+	 */
+	ContourFeatures[] features() {
+		return features;
+	}
+
+	int featureCount() {
+		return featureCount;
+	}
+
 	public int centerIndex(ArrayList<MatOfPoint> contours){
 		int index = 0;
 		for(int a = 0; a < contours.size(); a++){
@@ -255,6 +612,17 @@ public class GripPipeline implements VisionPipeline {
 		return blurOutput;
 	}
 
+	/**
+	 * Gets the native bytes held by the Mats this pipeline owns: its scratch images, including
+	 * those borrowed from the pool, and the contours of the last frame. Published every 30 frames
+	 * as "Pipeline Native Bytes"; it should settle once every frame size has been seen.
+	 */
+	public long nativeBytes() {
+		return NativeMemory.bytes(hslThresholdOutput) + NativeMemory.bytes(blurOutput)
+			+ NativeMemory.bytes(hlsImg) + NativeMemory.bytes(orientedImg) + NativeMemory.bytes(coarseImg)
+			+ NativeMemory.bytes(hierarchy) + NativeMemory.bytes(findContoursOutput);
+	}
+
 	/**
 	 * This method is a generated getter for the output of a Find_Contours.
 	 * @return ArrayList<MatOfPoint> output from Find_Contours.
@@ -276,16 +644,16 @@ public class GripPipeline implements VisionPipeline {
 	 * Segment an image based on hue, saturation, and luminance ranges.
 	 *
 	 * @param input The image on which to perform the HSL threshold.
-	 * @param hue The min and max hue
-	 * @param sat The min and max saturation
-	 * @param lum The min and max luminance
+	 * @param lower The min hue, luminance and saturation
+	 * @param upper The max hue, luminance and saturation
 	 * @param output The image in which to store the output.
 	 */
-	private void hslThreshold(Mat input, double[] hue, double[] sat, double[] lum,
+	void hslThreshold(Mat input, Scalar lower, Scalar upper,
 		Mat out) {
-		Imgproc.cvtColor(input, out, Imgproc.COLOR_BGR2HLS);
-		Core.inRange(out, new Scalar(hue[0], lum[0], sat[0]),
-			new Scalar(hue[1], lum[1], sat[1]), out);
+		//a separate 3 channel Mat, so neither call reallocates the other's output
+		hlsImg = pool.reborrow(hlsImg, input.rows(), input.cols(), CvType.CV_8UC3);
+		Imgproc.cvtColor(input, hlsImg, Imgproc.COLOR_BGR2HLS);
+		Core.inRange(hlsImg, lower, upper, out);
 	}
 
 	/**
@@ -330,25 +698,25 @@ public class GripPipeline implements VisionPipeline {
 	 * @param doubleRadius The radius for the blur.
 	 * @param output The image in which to store the output.
 	 */
-	private void blur(Mat input, BlurType type, double doubleRadius,
+	void blur(Mat input, BlurType type, double doubleRadius,
 		Mat output) {
 		int radius = (int)(doubleRadius + 0.5);
 		int kernelSize;
 		switch(type){
 			case BOX:
 				kernelSize = 2 * radius + 1;
-				Imgproc.blur(input, output, new Size(kernelSize, kernelSize));
+				Imgproc.blur(input, output, new Size(kernelSize, kernelSize), DEFAULT_ANCHOR, ISOLATED_BORDER);
 				break;
 			case GAUSSIAN:
 				kernelSize = 6 * radius + 1;
-				Imgproc.GaussianBlur(input,output, new Size(kernelSize, kernelSize), radius);
+				Imgproc.GaussianBlur(input,output, new Size(kernelSize, kernelSize), radius, radius, ISOLATED_BORDER);
 				break;
 			case MEDIAN:
 				kernelSize = 2 * radius + 1;
 				Imgproc.medianBlur(input, output, kernelSize);
 				break;
 			case BILATERAL:
-				Imgproc.bilateralFilter(input, output, -1, radius, radius);
+				Imgproc.bilateralFilter(input, output, -1, radius, radius, ISOLATED_BORDER);
 				break;
 		}
 	}
@@ -360,10 +728,11 @@ public class GripPipeline implements VisionPipeline {
 	 * @param maskSize the size of the mask.
 	 * @param output The image in which to store the output.
 	 */
-	private void findContours(Mat input, boolean externalOnly,
+	void findContours(Mat input, boolean externalOnly, Point offset,
 		List<MatOfPoint> contours) {
-		Mat hierarchy = new Mat();
-		contours.clear();
+		//the last search's contours are only referenced from this pipeline, and the debug
+		//overlay copies what it draws, so they can be freed now rather than by the finalizer
+		NativeMemory.release(contours);
 		int mode;
 		if (externalOnly) {
 			mode = Imgproc.RETR_EXTERNAL;
@@ -372,7 +741,8 @@ public class GripPipeline implements VisionPipeline {
 			mode = Imgproc.RETR_LIST;
 		}
 		int method = Imgproc.CHAIN_APPROX_SIMPLE;
-		Imgproc.findContours(input, contours, hierarchy, mode, method);
+		//the hierarchy is one row per contour, so it is only reallocated when the count changes
+		Imgproc.findContours(input, contours, hierarchy, mode, method, offset);
 	}
 
 
@@ -392,38 +762,142 @@ public class GripPipeline implements VisionPipeline {
 	 * @param minRatio minimum ratio of width to height
 	 * @param maxRatio maximum ratio of width to height
 	 */
-	private void filterContours(List<MatOfPoint> inputContours, double minArea,
+	void filterContours(List<MatOfPoint> inputContours, double minArea,
 		double minPerimeter, double minWidth, double maxWidth, double minHeight, double
 		maxHeight, double[] solidity, double maxVertexCount, double minVertexCount, double
 		minRatio, double maxRatio, List<MatOfPoint> output) {
-		final MatOfInt hull = new MatOfInt();
 		output.clear();
-		//operation
+		featureCount = 0;
+		//operation, cheapest tests first
 		for (int i = 0; i < inputContours.size(); i++) {
 			final MatOfPoint contour = inputContours.get(i);
-			final Rect bb = Imgproc.boundingRect(contour);
-			if (bb.width < minWidth || bb.width > maxWidth) continue;
-			if (bb.height < minHeight || bb.height > maxHeight) continue;
-			final double area = Imgproc.contourArea(contour);
-			if (area < minArea) continue;
-			if (Imgproc.arcLength(new MatOfPoint2f(contour.toArray()), true) < minPerimeter) continue;
-			Imgproc.convexHull(contour, hull);
-			MatOfPoint mopHull = new MatOfPoint();
-			mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
-			for (int j = 0; j < hull.size().height; j++) {
-				int index = (int)hull.get(j, 0)[0];
-				double[] point = new double[] { contour.get(index, 0)[0], contour.get(index, 0)[1]};
-				mopHull.put(j, 0, point);
+			final int vertices = contour.rows();
+			if (vertices < minVertexCount || vertices > maxVertexCount)	continue;
+			final int[] points = readPoints(contour, vertices);
+			if (featureCount == features.length) {
+				features = Arrays.copyOf(features, 2 * featureCount);
+				for (int j = featureCount; j < features.length; j++) {
+					features[j] = new ContourFeatures();
+				}
 			}
-			final double solid = 100 * area / Imgproc.contourArea(mopHull);
-			if (solid < solidity[0] || solid > solidity[1]) continue;
-			if (contour.rows() < minVertexCount || contour.rows() > maxVertexCount)	continue;
-			final double ratio = bb.width / (double)bb.height;
+			final ContourFeatures feature = features[featureCount];
+			feature.compute(contour, points, vertices);
+			final int width = feature.width();
+			final int height = feature.height();
+			if (width < minWidth || width > maxWidth) continue;
+			if (height < minHeight || height > maxHeight) continue;
+			final double ratio = width / (double)height;
 			if (ratio < minRatio || ratio > maxRatio) continue;
+			final double area = feature.area;
+			if (area < minArea) continue;
+			if (minPerimeter > 0 && perimeter(points, vertices) < minPerimeter) continue;
+			final double solid = 100 * area / convexHullArea(points, vertices);
+			if (solid < solidity[0] || solid > solidity[1]) continue;
+			feature.index = output.size();
+			featureCount++;
 			output.add(contour);
 		}
 	}
 
+	//Reused by filterContours so that filtering allocates nothing once the buffers have grown
+	private int[] pointBuffer = new int[512];
+	private long[] sortBuffer = new long[256];
+	private int[] hullBuffer = new int[1024];
+	//features of the contours in filterContoursOutput, pooled
+	private ContourFeatures[] features = newFeatures(16);
+	private int featureCount;
+	private ContourFeatures pairLeft, pairRight;
+	private final TargetMatcher matcher = new TargetMatcher();
+	private final TargetTracker tracker = new TargetTracker();
+	//capture time of the next frame, or 0 when the caller didn't say, and of the last frame processed
+	private long frameTime, processedFrameTime;
+
+	private static ContourFeatures[] newFeatures(int count) {
+		ContourFeatures[] features = new ContourFeatures[count];
+		for (int i = 0; i < count; i++) {
+			features[i] = new ContourFeatures();
+		}
+		return features;
+	}
+
+	/**
+	 * Copies a contour's points into pointBuffer as x0, y0, x1, y1, ... in one native call.
+	 */
+	private int[] readPoints(MatOfPoint contour, int vertices) {
+		if (pointBuffer.length < 2 * vertices) {
+			pointBuffer = new int[4 * vertices];
+		}
+		contour.get(0, 0, pointBuffer);
+		return pointBuffer;
+	}
+
+	/**
+	 * Area of a closed polygon by the shoelace formula, as Imgproc.contourArea computes it.
+	 */
+	private static double polygonArea(int[] points, int vertices) {
+		long twiceArea = 0;
+		int prevX = points[2 * vertices - 2], prevY = points[2 * vertices - 1];
+		for (int j = 0; j < 2 * vertices; j += 2) {
+			twiceArea += (long)prevX * points[j + 1] - (long)points[j] * prevY;
+			prevX = points[j];
+			prevY = points[j + 1];
+		}
+		return Math.abs(twiceArea) / 2.0;
+	}
+
+	/**
+	 * Length of a closed polygon's outline, as Imgproc.arcLength computes it.
+	 */
+	private static double perimeter(int[] points, int vertices) {
+		double length = 0;
+		int prevX = points[2 * vertices - 2], prevY = points[2 * vertices - 1];
+		for (int j = 0; j < 2 * vertices; j += 2) {
+			length += Math.hypot(points[j] - prevX, points[j + 1] - prevY);
+			prevX = points[j];
+			prevY = points[j + 1];
+		}
+		return length;
+	}
+
+	/**
+	 * Area of the convex hull of a contour's points, found with Andrew's monotone chain.
+	 */
+	private double convexHullArea(int[] points, int vertices) {
+		if (sortBuffer.length < vertices) {
+			sortBuffer = new long[2 * vertices];
+			hullBuffer = new int[4 * vertices + 4];
+		}
+		//contour coordinates are never negative, so x then y order is the order of the packed longs
+		for (int j = 0; j < vertices; j++) {
+			sortBuffer[j] = ((long)points[2 * j] << 32) | points[2 * j + 1];
+		}
+		Arrays.sort(sortBuffer, 0, vertices);
+		int size = 0;
+		//lower hull, then upper hull
+		for (int pass = 0; pass < 2; pass++) {
+			final int start = size;
+			for (int k = 0; k < vertices; k++) {
+				final long p = sortBuffer[pass == 0 ? k : vertices - 1 - k];
+				final int x = (int)(p >> 32), y = (int)p;
+				while (size - start >= 2 && cross(hullBuffer, size, x, y) <= 0) {
+					size--;
+				}
+				hullBuffer[2 * size] = x;
+				hullBuffer[2 * size + 1] = y;
+				size++;
+			}
+			//the last point of each chain is the first point of the other
+			size--;
+		}
+		return size < 3 ? 0 : polygonArea(hullBuffer, size);
+	}
+
+	private static long cross(int[] hull, int size, int x, int y) {
+		final int ax = hull[2 * size - 4], ay = hull[2 * size - 3];
+		final int bx = hull[2 * size - 2], by = hull[2 * size - 1];
+		return (long)(bx - ax) * (y - ay) - (long)(by - ay) * (x - ax);
+	}
+
 
 
 
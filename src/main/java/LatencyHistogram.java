@@ -0,0 +1,65 @@
+import java.util.Arrays;
+
+/**
+ * Rolling window of the most recent latency samples, in nanoseconds. Recording a sample is a
+ * single array store; percentiles are only worked out when asked for, so this can sit on the
+ * vision thread and be read on a decimated schedule.
+ */
+public class LatencyHistogram {
+  private final long[] samples;
+  private final long[] sorted;
+  private int next;
+  private int count;
+
+  /**
+   * Creates a histogram over the last {@code window} samples.
+   */
+  public LatencyHistogram(int window) {
+    samples = new long[window];
+    sorted = new long[window];
+  }
+
+  /**
+   * Records one sample, replacing the oldest once the window is full.
+   */
+  public void record(long nanos) {
+    samples[next] = nanos;
+    next = (next + 1) % samples.length;
+    if (count < samples.length) {
+      count++;
+    }
+  }
+
+  /**
+   * Gets the number of samples in the window.
+   */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Works out percentiles of the current window. The result holds p50, p95, p99 and max in
+   * milliseconds, in that order, and is all zeros while the window is empty.
+   *
+   * @param out array of at least four elements to store the result in
+   * @return {@code out}
+   */
+  public double[] summarize(double[] out) {
+    if (count == 0) {
+      Arrays.fill(out, 0, 4, 0);
+      return out;
+    }
+    System.arraycopy(samples, 0, sorted, 0, count);
+    Arrays.sort(sorted, 0, count);
+    out[0] = percentile(0.50);
+    out[1] = percentile(0.95);
+    out[2] = percentile(0.99);
+    out[3] = sorted[count - 1] / 1e6;
+    return out;
+  }
+
+  private double percentile(double fraction) {
+    int index = (int) Math.ceil(fraction * count) - 1;
+    return sorted[Math.max(0, index)] / 1e6;
+  }
+}
@@ -0,0 +1,161 @@
+import org.opencv.core.Mat;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+
+/**
+ * Wraps a frame source with a capture thread that keeps only the newest frame, so a runner that
+ * falls behind always gets the latest frame rather than the next one in the queue. Frames are
+ * counted three ways so a slow pipeline can be told apart from a sick camera:
+ *
+ * <ul>
+ * <li>"Capture Dropped": frames replaced by a newer one before the runner took them (the
+ * pipeline is slower than the camera)</li>
+ * <li>"Capture Stale": grabs that timed out with no new frame (the camera is slow or stalled)</li>
+ * <li>"Capture Errors": errors from the wrapped source, after each of which the capture thread
+ * backs off, doubling from 10 ms up to 1 s while they keep coming</li>
+ * </ul>
+ */
+public class LatestFrameSource implements FrameSource {
+  private static final long MIN_BACKOFF_MS = 10;
+  private static final long MAX_BACKOFF_MS = 1000;
+  private static final int PUBLISH_INTERVAL = 30;
+
+  private final FrameSource source;
+  private final double timeout;
+  private final Object lock = new Object();
+  private final Thread thread;
+  private final NetworkTableEntry droppedEntry, staleEntry, errorsEntry;
+  private volatile boolean enabled = true;
+
+  // guarded by lock
+  private Mat latest = new Mat();
+  private long latestTime;
+  private boolean pending;
+  private String error = "";
+  private String cameraError = "";
+
+  private volatile long dropped, stale, errors;
+  private long captured;
+
+  /**
+   * Starts capturing from {@code source}.
+   *
+   * @param source     the source to capture from
+   * @param timeout    the longest {@link #grabFrame} waits for a new frame, in seconds
+   * @param statsTable the table to publish the counters in, or null not to publish them
+   */
+  public LatestFrameSource(FrameSource source, double timeout, NetworkTable statsTable) {
+    this.source = source;
+    this.timeout = timeout;
+    droppedEntry = statsTable != null ? statsTable.getEntry("Capture Dropped") : null;
+    staleEntry = statsTable != null ? statsTable.getEntry("Capture Stale") : null;
+    errorsEntry = statsTable != null ? statsTable.getEntry("Capture Errors") : null;
+    thread = new Thread(this::captureLoop, "Latest Frame Capture");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public long grabFrame(Mat image) {
+    return grabFrame(image, timeout);
+  }
+
+  @Override
+  public long grabFrame(Mat image, double timeout) {
+    long deadline = System.nanoTime() + (long) (timeout * 1e9);
+    synchronized (lock) {
+      try {
+        long wait;
+        while (!pending && (wait = deadline - System.nanoTime()) > 0) {
+          lock.wait(wait / 1000000, (int) (wait % 1000000));
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      if (!pending) {
+        stale++;
+        publish();
+        error = "no new frame within " + timeout + " s"
+            + (cameraError.isEmpty() ? "" : " (" + cameraError + ")");
+        return 0;
+      }
+      latest.copyTo(image);
+      pending = false;
+      return latestTime;
+    }
+  }
+
+  @Override
+  public String getError() {
+    synchronized (lock) {
+      return error;
+    }
+  }
+
+  public long getDropped() {
+    return dropped;
+  }
+
+  public long getStale() {
+    return stale;
+  }
+
+  public long getErrors() {
+    return errors;
+  }
+
+  /**
+   * Stops the capture thread.
+   */
+  public void stop() {
+    enabled = false;
+    thread.interrupt();
+  }
+
+  private void captureLoop() {
+    Mat back = new Mat();
+    long backoff = 0;
+    while (enabled) {
+      long frameTime = source.grabFrame(back, timeout);
+      if (frameTime == 0) {
+        errors++;
+        synchronized (lock) {
+          cameraError = source.getError();
+        }
+        publish();
+        backoff = Math.min(MAX_BACKOFF_MS, Math.max(MIN_BACKOFF_MS, 2 * backoff));
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException ex) {
+          return;
+        }
+        continue;
+      }
+      backoff = 0;
+      synchronized (lock) {
+        if (pending) {
+          dropped++;
+        }
+        Mat swap = latest;
+        latest = back;
+        back = swap;
+        latestTime = frameTime;
+        pending = true;
+        cameraError = "";
+        lock.notifyAll();
+      }
+      if (++captured % PUBLISH_INTERVAL == 0) {
+        publish();
+      }
+    }
+  }
+
+  private void publish() {
+    if (droppedEntry != null) {
+      droppedEntry.setDouble(dropped);
+      staleEntry.setDouble(stale);
+      errorsEntry.setDouble(errors);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+import edu.wpi.first.networktables.NetworkTable;
+
+/**
+ * Watches a memory figure for steady growth over a long run. Samples taken during warm-up,
+ * while buffers are still being allocated for the first time, are ignored; after that a least
+ * squares line is fitted to the most recent samples, and its slope is the growth rate. Pool and
+ * allocator noise moves the figure up and down, but only a leak keeps the slope positive.
+ */
+public class LeakDetector {
+  private final long warmupNanos;
+  private final long[] times;
+  private final long[] values;
+  private long firstNanos = Long.MIN_VALUE;
+  private int count, next;
+  private long last;
+
+  /**
+   * Creates a detector.
+   *
+   * @param window      how many of the latest samples the growth rate is fitted to
+   * @param warmupNanos how long after the first sample to start keeping samples
+   */
+  public LeakDetector(int window, long warmupNanos) {
+    times = new long[window];
+    values = new long[window];
+    this.warmupNanos = warmupNanos;
+  }
+
+  /**
+   * Records a sample.
+   *
+   * @param nanos the {@link System#nanoTime()} it was taken at
+   * @param bytes the memory figure, in bytes
+   */
+  public synchronized void sample(long nanos, long bytes) {
+    if (firstNanos == Long.MIN_VALUE) {
+      firstNanos = nanos;
+    }
+    last = bytes;
+    if (nanos - firstNanos < warmupNanos) {
+      return;
+    }
+    times[next] = nanos;
+    values[next] = bytes;
+    next = (next + 1) % times.length;
+    count = Math.min(count + 1, times.length);
+  }
+
+  /**
+   * Gets whether enough samples have been kept since warm-up to fit a growth rate.
+   */
+  public synchronized boolean isReady() {
+    return count >= 3;
+  }
+
+  /**
+   * Gets the growth rate fitted to the samples in the window.
+   *
+   * @return the growth in bytes per minute, or 0 before {@link #isReady}
+   */
+  public synchronized double getGrowth() {
+    if (count < 3) {
+      return 0;
+    }
+    // times relative to one sample keep the sums well inside double precision
+    final long origin = times[(next - count + times.length) % times.length];
+    double meanT = 0, meanV = 0;
+    for (int i = 0; i < count; i++) {
+      meanT += (times[i] - origin) / 60e9;
+      meanV += values[i];
+    }
+    meanT /= count;
+    meanV /= count;
+    double covariance = 0, variance = 0;
+    for (int i = 0; i < count; i++) {
+      final double t = (times[i] - origin) / 60e9 - meanT;
+      covariance += t * (values[i] - meanV);
+      variance += t * t;
+    }
+    return variance > 0 ? covariance / variance : 0;
+  }
+
+  /**
+   * Gets whether the memory is growing faster than a limit.
+   *
+   * @param maxGrowth the most growth allowed, in bytes per minute
+   */
+  public boolean isLeaking(double maxGrowth) {
+    return isReady() && getGrowth() > maxGrowth;
+  }
+
+  /**
+   * Gets the last sample, including any taken during warm-up.
+   */
+  public synchronized long getLast() {
+    return last;
+  }
+
+  /**
+   * Publishes the last sample as "Native Bytes" and the growth rate as "Native Growth", in
+   * bytes per minute.
+   */
+  public void publish(NetworkTable table) {
+    table.getEntry("Native Bytes").setDouble(getLast());
+    table.getEntry("Native Growth").setDouble(getGrowth());
+  }
+}
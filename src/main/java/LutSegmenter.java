@@ -0,0 +1,99 @@
+import java.util.Arrays;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Colour segmentation by table lookup. Whenever the HSL bounds change, every colour in a
+ * quantized BGR cube (6 bits per channel) is run through the same cvtColor and inRange as
+ * {@code GripPipeline.hslThreshold} once, and the result is kept as a byte per colour. A frame
+ * is then segmented in a single pass that looks each pixel up, with no 3-channel intermediate.
+ *
+ * <p>Quantization means pixels within a few levels of a threshold can land on the other side of
+ * it from the exact path; everywhere else the masks are identical.</p>
+ */
+public class LutSegmenter {
+  private static final int BITS = 6;
+  private static final int SHIFT = 8 - BITS;
+  private static final int LEVELS = 1 << BITS;
+
+  /** The most of a mask's pixels the quantization may put on the wrong side of a bound. */
+  public static final double MAX_MISMATCH = 0.001;
+
+  private final byte[] table = new byte[LEVELS * LEVELS * LEVELS];
+  //the bounds the table was built for; every tuning snapshot has its own Scalars, so they are
+  //compared by value, or any entry changing would rebuild the table on the vision thread
+  private final double[] builtLower = new double[4];
+  private final double[] builtUpper = new double[4];
+  private boolean built;
+  private byte[] pixels = new byte[0];
+  private byte[] mask = new byte[0];
+
+  /**
+   * Writes a binary mask of the pixels of {@code input} within the HLS bounds into {@code out}.
+   *
+   * @param input a BGR image
+   * @param lower the min hue, luminance and saturation
+   * @param upper the max hue, luminance and saturation
+   * @param out   the image to store the 8-bit mask in
+   */
+  public void threshold(Mat input, Scalar lower, Scalar upper, Mat out) {
+    if (!built || !Arrays.equals(lower.val, builtLower) || !Arrays.equals(upper.val, builtUpper)) {
+      build(lower, upper);
+    }
+    int count = input.rows() * input.cols();
+    if (pixels.length < 3 * count) {
+      pixels = new byte[3 * count];
+      mask = new byte[count];
+    }
+    input.get(0, 0, pixels);
+    for (int i = 0, p = 0; i < count; i++, p += 3) {
+      int b = (pixels[p] & 0xff) >> SHIFT;
+      int g = (pixels[p + 1] & 0xff) >> SHIFT;
+      int r = (pixels[p + 2] & 0xff) >> SHIFT;
+      mask[i] = table[(b << (2 * BITS)) | (g << BITS) | r];
+    }
+    out.create(input.rows(), input.cols(), CvType.CV_8UC1);
+    out.put(0, 0, mask);
+  }
+
+  /**
+   * Rebuilds the lookup table for new bounds.
+   */
+  private void build(Scalar lower, Scalar upper) {
+    Mat colours = new Mat(1, table.length, CvType.CV_8UC3);
+    byte[] bgr = new byte[3 * table.length];
+    for (int i = 0; i < table.length; i++) {
+      // the centre of each quantization bin
+      bgr[3 * i] = (byte) ((((i >> (2 * BITS)) & (LEVELS - 1)) << SHIFT) + (1 << SHIFT) / 2);
+      bgr[3 * i + 1] = (byte) ((((i >> BITS) & (LEVELS - 1)) << SHIFT) + (1 << SHIFT) / 2);
+      bgr[3 * i + 2] = (byte) (((i & (LEVELS - 1)) << SHIFT) + (1 << SHIFT) / 2);
+    }
+    colours.put(0, 0, bgr);
+    Mat hls = new Mat();
+    Imgproc.cvtColor(colours, hls, Imgproc.COLOR_BGR2HLS);
+    Mat result = new Mat();
+    Core.inRange(hls, lower, upper, result);
+    result.get(0, 0, table);
+    colours.release();
+    hls.release();
+    result.release();
+    System.arraycopy(lower.val, 0, builtLower, 0, builtLower.length);
+    System.arraycopy(upper.val, 0, builtUpper, 0, builtUpper.length);
+    built = true;
+  }
+
+  /**
+   * Gets the fraction of pixels that differ between two masks of the same size.
+   */
+  public static double mismatch(Mat a, Mat b) {
+    Mat diff = new Mat();
+    Core.compare(a, b, diff, Core.CMP_NE);
+    double fraction = Core.countNonZero(diff) / (double) a.total();
+    diff.release();
+    return fraction;
+  }
+}
@@ -5,14 +5,21 @@
 /* the project.                                                               */
 /*----------------------------------------------------------------------------*/
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -24,6 +31,7 @@ import edu.wpi.cscore.UsbCamera;
 import edu.wpi.cscore.VideoSource;
 import edu.wpi.first.cameraserver.CameraServer;
 import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.vision.VisionPipeline;
 import edu.wpi.first.vision.VisionThread;
@@ -40,6 +48,17 @@ import org.opencv.core.Size;
    {
        "team": <team number>,
        "ntmode": <"client" or "server", "client" if unspecified>
+       "runner": <"single", "pipelined" or "dual", "single" if unspecified>
+       "ring depth": <frames buffered by the pipelined runner, default 3>
+       "drop policy": <"oldest" or "newest", "oldest" if unspecified>
+       "capture": <"blocking" or "latest", "blocking" if unspecified>
+       "grab timeout": <seconds to wait for a frame in "latest" capture, default 1>
+       "camera timeout": <seconds to wait at startup for the cameras to connect, default 5>
+       "warm-up budget": <most seconds to spend warming up each camera's pipelines, default 10>
+       "flight recorder": <ring file to record frames into, off if unspecified>
+       "flight recorder size": <megabytes of ring file for all cameras together, default 256>
+       "pipelines": <pipelines to build, of "grip", "oldgrip", "circles" and "combined", ["grip"] if unspecified>
+       "pipeline": <the one to run until the "Pipeline" entry is set, the first listed if unspecified>
        "cameras": [
            {
                "name": <camera name>
@@ -83,6 +102,16 @@ public final class Main {
 
   public static int team;
   public static boolean server;
+  public static String runnerMode = "single";
+  public static int ringDepth = 3;
+  public static PipelinedVisionRunner.DropPolicy dropPolicy = PipelinedVisionRunner.DropPolicy.DROP_OLDEST;
+  public static boolean latestCapture;
+  public static double grabTimeout = 1.0;
+  public static double cameraTimeout = 5.0;
+  public static double warmUpBudget = 10.0;
+  public static String flightRecorderPath;
+  public static int flightRecorderSize = 256;
+  public static PipelineRegistry pipelineRegistry = PipelineRegistry.gripOnly();
   public static List<CameraConfig> cameraConfigs = new ArrayList<>();
 
   private Main() {
@@ -167,6 +196,60 @@ public final class Main {
       }
     }
 
+    // runner (optional)
+    if (obj.has("runner")) {
+      String str = obj.get("runner").getAsString().toLowerCase();
+      if ("single".equals(str) || "pipelined".equals(str) || "dual".equals(str)) {
+        runnerMode = str;
+      } else {
+        parseError("could not understand runner value '" + str + "'");
+      }
+    }
+    if (obj.has("ring depth")) {
+      ringDepth = Math.max(1, obj.get("ring depth").getAsInt());
+    }
+    if (obj.has("drop policy")) {
+      dropPolicy = PipelinedVisionRunner.DropPolicy.get(obj.get("drop policy").getAsString());
+    }
+    if (obj.has("capture")) {
+      String str = obj.get("capture").getAsString();
+      if ("latest".equalsIgnoreCase(str)) {
+        latestCapture = true;
+      } else if (!"blocking".equalsIgnoreCase(str)) {
+        parseError("could not understand capture value '" + str + "'");
+      }
+    }
+    if (obj.has("grab timeout")) {
+      grabTimeout = obj.get("grab timeout").getAsDouble();
+    }
+    if (obj.has("camera timeout")) {
+      cameraTimeout = obj.get("camera timeout").getAsDouble();
+    }
+    if (obj.has("warm-up budget")) {
+      warmUpBudget = obj.get("warm-up budget").getAsDouble();
+    }
+    if (obj.has("flight recorder")) {
+      flightRecorderPath = obj.get("flight recorder").getAsString();
+    }
+    if (obj.has("flight recorder size")) {
+      flightRecorderSize = obj.get("flight recorder size").getAsInt();
+    }
+    if (obj.has("pipelines")) {
+      List<String> names = new ArrayList<>();
+      for (JsonElement element : obj.get("pipelines").getAsJsonArray()) {
+        names.add(element.getAsString().toLowerCase());
+      }
+      String defaultName = obj.has("pipeline") ? obj.get("pipeline").getAsString().toLowerCase()
+          : names.isEmpty() ? "" : names.get(0);
+      try {
+        pipelineRegistry = new PipelineRegistry(names, defaultName);
+      } catch (IllegalArgumentException ex) {
+        parseError(ex.getMessage());
+        return false;
+      }
+    }
+    pipelineRegistry.setWarmUpBudget(warmUpBudget);
+
     // cameras
     JsonElement camerasElement = obj.get("cameras");
     if (camerasElement == null) {
@@ -184,43 +267,122 @@ public final class Main {
   }
 
   /**
-   * Start running the camera.
+   * Opens a camera and applies its settings, without serving it. Safe to call for several
+   * cameras at once.
    */
-  public static UsbCamera startCamera(CameraConfig config) {
+  public static UsbCamera openCamera(CameraConfig config) {
     System.out.println("Starting camera '" + config.name + "' on " + config.path);
-    CameraServer inst = CameraServer.getInstance();
     UsbCamera camera = new UsbCamera(config.name, config.path);
-    MjpegServer server = inst.startAutomaticCapture(camera);
-    Gson gson = new GsonBuilder().create();
 
-    camera.setConfigJson(gson.toJson(config.config));
+    // the parsed elements print as compact JSON themselves, without going through Gson
+    camera.setConfigJson(config.config.toString());
     camera.setConnectionStrategy(VideoSource.ConnectionStrategy.kKeepOpen);
 
+    return camera;
+  }
+
+  /**
+   * Starts the MJPEG server for an opened camera. CameraServer hands out ports in the order
+   * servers are started, from 1181, so cameras must be served one at a time in config order
+   * for each to keep its port.
+   */
+  public static void serveCamera(CameraConfig config, UsbCamera camera) {
+    MjpegServer server = CameraServer.getInstance().startAutomaticCapture(camera);
     if (config.streamConfig != null) {
-      server.setConfigJson(gson.toJson(config.streamConfig));
+      server.setConfigJson(config.streamConfig.toString());
     }
+  }
 
-    return camera;
+  /**
+   * Opens every camera at once, since opening a camera and applying its settings is mostly
+   * waiting on the device, then starts their servers in config order so the MJPEG ports don't
+   * depend on which camera opened first. They carry on connecting in the background; see
+   * {@link #awaitCameras}.
+   *
+   * @param configs the cameras to start
+   * @return the cameras, in the order of {@code configs}
+   */
+  public static List<UsbCamera> startCameras(List<CameraConfig> configs) {
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, configs.size()));
+    List<Future<UsbCamera>> opened = new ArrayList<>();
+    for (CameraConfig config : configs) {
+      opened.add(executor.submit(() -> openCamera(config)));
+    }
+    List<UsbCamera> cameras = new ArrayList<>();
+    try {
+      for (int i = 0; i < opened.size(); i++) {
+        UsbCamera camera = opened.get(i).get();
+        serveCamera(configs.get(i), camera);
+        cameras.add(camera);
+      }
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException("could not start camera", ex.getCause());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdown();
+    }
+    return cameras;
+  }
+
+  /**
+   * Waits for cameras to connect. Cameras that haven't connected within the timeout are left
+   * to cscore, which keeps trying to open them.
+   *
+   * @param cameras the cameras
+   * @param timeout the longest to wait for them all, in seconds
+   */
+  public static void awaitCameras(List<UsbCamera> cameras, double timeout) {
+    long deadline = System.nanoTime() + (long) (timeout * 1e9);
+    try {
+      for (UsbCamera camera : cameras) {
+        while (!camera.isConnected() && System.nanoTime() - deadline < 0) {
+          Thread.sleep(10);
+        }
+        if (!camera.isConnected()) {
+          System.out.println("Camera '" + camera.getName() + "' not connected after " + timeout + " s");
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   /**
    * Example pipeline.
    */
-  public static class MyPipeline implements VisionPipeline {
+  public static class MyPipeline implements VisionPipeline, OverlaySource {
+    private static final int MEDIAN_SIZE = 5;
+    //inverse ratio, min distance between centers, edge detector threshold 1, edge detector threshold 2
+    private static final double DP = 1, MIN_DISTANCE = 25, EDGE_THRESHOLD = 100, CENTER_THRESHOLD = 30;
     public Mat outputImg;
+    //the stages' outputs are the frame's own size, not pooled views: HoughCircles' edge
+    //detection reads past a view's edges
+    private final StageGraph graph = new StageGraph();
+    private final String circlesStage = declare(graph);
+
+    /**
+     * Declares the gray conversion, median blur and HoughCircles as stages of {@code graph}.
+     *
+     * @return the name of the stage whose output has one column per circle, {x, y, radius}
+     */
+    static String declare(StageGraph graph) {
+      String gray = graph.add("gray", (in, out) -> Imgproc.cvtColor(in[0], out, Imgproc.COLOR_BGR2GRAY),
+          StageGraph.FRAME);
+      String blurred = graph.add(gray + "/median " + MEDIAN_SIZE,
+          (in, out) -> Imgproc.medianBlur(in[0], out, MEDIAN_SIZE), gray);
+      return graph.add(blurred + "/circles " + MIN_DISTANCE + " " + EDGE_THRESHOLD + " " + CENTER_THRESHOLD,
+          (in, out) -> Imgproc.HoughCircles(in[0], out, Imgproc.HOUGH_GRADIENT, DP, MIN_DISTANCE,
+              EDGE_THRESHOLD, CENTER_THRESHOLD), blurred);
+    }
+
     //image size is 120 rows, 160 columns
     @Override
     public void process(Mat inputImg) {
-      outputImg = new Mat(inputImg.rows(),inputImg.cols(), inputImg.type());
-      Mat circles = new Mat();
-      Mat gray = new Mat();
-
-      Imgproc.cvtColor(inputImg,gray,Imgproc.COLOR_BGR2GRAY);
-      Imgproc.medianBlur(gray, gray, 5);
-
+      graph.run(inputImg);
       outputImg = inputImg;
-      //(input image, output image, process (don't touch),inverse ratio, min distance between centers, edge detector threshold 1, edge detector threshold 2)
-      Imgproc.HoughCircles(gray,circles, Imgproc.HOUGH_GRADIENT, 1, 25, 100, 30);
+      //one column per circle, only reallocated when the number of circles changes
+      Mat circles = graph.output(circlesStage);
       //System.out.println("Circles: " + circles.cols());
       for(int a = 0; a < circles.cols(); a++){
         double[] c = circles.get(0,a);
@@ -228,6 +390,94 @@ public final class Main {
         Imgproc.circle(outputImg,center,(int)Math.round(c[2]),new Scalar(0,0,255),2);
       }
     }
+
+    @Override
+    public void snapshotOverlay(OverlayRenderer.Snapshot snapshot) {
+      if (outputImg != null) {
+        snapshot.setImage(outputImg);
+      }
+    }
+  }
+
+  /**
+   * Wraps a camera source for the configured capture mode. In "latest" mode its capture
+   * counters are published in {@code statsTable}.
+   */
+  public static FrameSource captureSource(FrameSource source, NetworkTable statsTable) {
+    return latestCapture ? new LatestFrameSource(source, grabTimeout, statsTable) : source;
+  }
+
+  /**
+   * Creates a flight recorder if "flight recorder" is set, with slots big enough for the largest
+   * configured video mode (640x480 where none is given). "flight recorder size" is shared equally
+   * by the camera runners' rings.
+   *
+   * @param name       appended to the ring file's name for runners of one camera, or null
+   * @param statsTable the table to publish the recorder's counters in
+   * @return the recorder, or null if recording is off
+   */
+  public static FlightRecorder flightRecorder(String name, NetworkTable statsTable) {
+    if (flightRecorderPath == null) {
+      return null;
+    }
+    int maxPixels = 0;
+    for (CameraConfig cameraConfig : cameraConfigs) {
+      if (cameraConfig.config.has("width") && cameraConfig.config.has("height")) {
+        maxPixels = Math.max(maxPixels, cameraConfig.config.get("width").getAsInt()
+            * cameraConfig.config.get("height").getAsInt());
+      }
+    }
+    if (maxPixels == 0) {
+      maxPixels = 640 * 480;
+    }
+    String path = name != null ? flightRecorderPath + "-" + name.toLowerCase() : flightRecorderPath;
+    // dual mode records each of its two cameras to its own ring
+    int rings = "dual".equals(runnerMode) ? 2 : 1;
+    return new FlightRecorder(new File(path), flightRecorderSize / rings, 3 * maxPixels, statsTable);
+  }
+
+  /**
+   * Publishes the offsets and packed result of the frame the pipeline last processed, or no
+   * target if a pipeline other than grip or combined is selected.
+   */
+  private static void publishResult(SwitchingPipeline pipeline, NetworkTable table, ResultPublisher results) {
+    GripPipeline grip = pipeline.getGrip();
+    if (grip != null) {
+      grip.publishTarget(table);
+      results.publish(grip);
+    } else {
+      GripPipeline.publishNoTarget(table);
+      results.publishNoTarget(pipeline.getFrameTime());
+    }
+  }
+
+  /**
+   * Start a vision thread dedicated to one camera. Its offset, stage timings, frame rate and
+   * latency go in a subtable named after the camera; while it is the camera selected by
+   * "Reverse Drive" its offset and packed result are also published at the top level and its
+   * frames are offered to the overlay renderer. The subtable's "Pipeline" entry picks which
+   * registered pipeline it runs.
+   */
+  public static void startCameraRunner(VideoSource camera, boolean upsideDown, String name,
+      boolean reverseDrive, OverlayRenderer overlay, ResultPublisher selectedResults) {
+    NetworkTable table = NetworkTableInstance.getDefault().getTable("RaspberryPi");
+    NetworkTable cameraTable = table.getSubTable(name);
+    ResultPublisher cameraResults = new ResultPublisher(cameraTable);
+    SwitchingPipeline pipeline = pipelineRegistry.create(
+        new PipelineRegistry.Context(upsideDown, cameraTable), pipelineRegistry.select(cameraTable));
+    BetterVisionRunner<SwitchingPipeline> runner = new BetterVisionRunner<SwitchingPipeline>(
+        captureSource(new CameraFrameSource(camera), cameraTable), pipeline, switching -> {
+          publishResult(switching, cameraTable, cameraResults);
+          if (PipelineTuning.getInstance().get().reverseDrive == reverseDrive) {
+            publishResult(switching, table, selectedResults);
+            overlay.offer(switching);
+          }
+          // once the frame's entries are all set; a second flush within 10 ms would be dropped
+          table.getInstance().flush();
+        });
+    runner.setStats(new FrameStats(cameraTable, 30));
+    runner.setRecorder(flightRecorder(name, cameraTable));
+    new Thread(runner::runForever, "Vision " + name).start();
   }
 
   /**
@@ -254,10 +504,7 @@ public final class Main {
     }
     
     // start cameras
-    List<UsbCamera> cameras = new ArrayList<>();
-    for (CameraConfig cameraConfig : cameraConfigs) {
-      cameras.add(startCamera(cameraConfig));
-    }
+    List<UsbCamera> cameras = startCameras(cameraConfigs);
 
     ntinst.getTable("RaspberryPi").addEntryListener("Vision Mode",(table,key,entry,value,flags) ->{
       System.out.println("Changing Exposure " + value.getBoolean());
@@ -275,35 +522,80 @@ public final class Main {
     //TEMPORARY
     cameras.get(0).getProperty("raw_exposure_absolute").set(10);
     CvSource outputStream = CameraServer.getInstance().putVideo("Test", 416, 240); 
+    OverlayRenderer overlay = new OverlayRenderer(outputStream);
     //MjpegServer chosenCamera = CameraServer.getInstance().addSwitchedCamera("Jacob");
     // start image processing on camera 0 if present
     if (cameras.size() >= 2) {
-      BetterVisionRunner<GripPipeline> runner = new BetterVisionRunner<GripPipeline>(cameras.get(1),cameras.get(0),new GripPipeline(),pipeline -> {
+      ResultPublisher results = new ResultPublisher(ntinst.getTable("RaspberryPi"));
+      BetterVisionRunner.Listener<SwitchingPipeline> listener = pipeline -> {
           //System.out.println("Vision Mode: " + ntinst.getTable("RaspberryPi").getEntry("Vision Mode").getBoolean(false));
-          outputStream.putFrame(pipeline.outputImg);
+          publishResult(pipeline, ntinst.getTable("RaspberryPi"), results);
+          ntinst.flush();
+          overlay.offer(pipeline);
 
-          ntinst.getTable("RaspberryPi").getEntry("Center Offset").setNumber(pipeline.midOffset);
           //ntinst.getTable("RaspberryPi").getEntry("Side Offset").setNumber(pipeline.sideOffset);
-      });
-      Thread visionThread = new Thread(runner :: runForever);
-     
-      /*VisionThread visionThread2 = new VisionThread(cameras.get(0),
-              new GripPipeline(), pipeline -> {
-                outputStream.putFrame(pipeline.outputImg);
-                  if(ntinst.getTable("RaspberryPi").getEntry("Vision Mode").getBoolean(false)){
-                    cameras.get(0).setExposureManual(10);
-                  }else{
-                    cameras.get(0).setExposureAuto();
-                  }
-                ntinst.getTable("RaspberryPi").getEntry("Center Offset").setNumber(pipeline.midOffset);
-      });*/
-      
-      visionThread.start();
-      //visionThread2.start();
+      };
+      if ("dual".equals(runnerMode)) {
+        // one sink and pipeline per camera; the robot picks whichever result it needs
+        startCameraRunner(cameras.get(1), true, "Front", false, overlay, results);
+        startCameraRunner(cameras.get(0), false, "Back", true, overlay, results);
+      } else if ("pipelined".equals(runnerMode)) {
+        // every slot has its own instances, warmed once and all following the one selection; each
+        // sees only some of the frames, so none of them can track a target from one frame to the next
+        System.out.println("Tracking and ROI Tracking are off in the pipelined runner");
+        PipelineRegistry.Selection selection = pipelineRegistry.select(ntinst.getTable("RaspberryPi"));
+        PipelineRegistry.Context context = new PipelineRegistry.Context(null, null, true);
+        Iterator<SwitchingPipeline> slots =
+            Arrays.asList(pipelineRegistry.create(context, selection, ringDepth)).iterator();
+        PipelinedVisionRunner<SwitchingPipeline> runner = new PipelinedVisionRunner<SwitchingPipeline>(
+            captureSource(new CameraFrameSource(cameras.get(1), cameras.get(0)), ntinst.getTable("RaspberryPi").getSubTable("Runner")),
+            slots::next, listener,
+            ringDepth, dropPolicy, ntinst.getTable("RaspberryPi").getSubTable("Runner"));
+        runner.start();
+      } else {
+        BetterVisionRunner<SwitchingPipeline> runner = new BetterVisionRunner<SwitchingPipeline>(
+            captureSource(new CameraFrameSource(cameras.get(1), cameras.get(0)), ntinst.getTable("RaspberryPi")),
+            pipelineRegistry.create(new PipelineRegistry.Context(null, null),
+                pipelineRegistry.select(ntinst.getTable("RaspberryPi"))),
+            listener);
+        runner.setRecorder(flightRecorder(null, ntinst.getTable("RaspberryPi")));
+        Thread visionThread = new Thread(runner :: runForever);
+       
+        /*VisionThread visionThread2 = new VisionThread(cameras.get(0),
+                new GripPipeline(), pipeline -> {
+                  outputStream.putFrame(pipeline.outputImg);
+                    if(ntinst.getTable("RaspberryPi").getEntry("Vision Mode").getBoolean(false)){
+                      cameras.get(0).setExposureManual(10);
+                    }else{
+                      cameras.get(0).setExposureAuto();
+                    }
+                  ntinst.getTable("RaspberryPi").getEntry("Center Offset").setNumber(pipeline.midOffset);
+        });*/
+        
+        visionThread.start();
+        //visionThread2.start();
+      }
     }
 
+    // the cameras connect while the pipelines warm up, so this rarely waits
+    awaitCameras(cameras, cameraTimeout);
+    long camerasReady = ManagementFactory.getRuntimeMXBean().getUptime();
+    System.out.println("Cameras ready " + camerasReady + " ms after JVM start");
+    NetworkTable startupTable = ntinst.getTable("RaspberryPi").getSubTable("Startup");
+    startupTable.getEntry("Cameras Ready Ms").setDouble(camerasReady);
+
     // loop forever
+    NetworkTable poolTable = ntinst.getTable("RaspberryPi").getSubTable("Mat Pool");
+    NetworkTable memoryTable = ntinst.getTable("RaspberryPi").getSubTable("Native Memory");
+    // growth is fitted over the last 10 minutes, after 2 minutes of startup allocation
+    LeakDetector leakDetector = new LeakDetector(60, TimeUnit.MINUTES.toNanos(2));
     for (;;) {
+      MatPool.getInstance().publish(poolTable);
+      long outsideJvm = NativeMemory.outsideJvmBytes();
+      if (outsideJvm != Long.MIN_VALUE) {
+        leakDetector.sample(System.nanoTime(), outsideJvm);
+        leakDetector.publish(memoryTable);
+      }
       try {
         Thread.sleep(10000);
       } catch (InterruptedException ex) {
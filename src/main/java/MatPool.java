@@ -0,0 +1,177 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+
+import edu.wpi.first.networktables.NetworkTable;
+
+/**
+ * A pool of native image buffers for per-frame scratch Mats. Pipelines {@link #borrow} a Mat
+ * of the size and type they need and {@link #release} it when the frame is done with it, so once
+ * every size has been seen, frames allocate no native buffers.
+ *
+ * <p>Buffers are kept with their sizes rounded up to {@value #GRANULE} pixels, and a borrower
+ * asking for anything smaller gets a view of the right size, so a region of interest that grows
+ * and shrinks by a few pixels still reuses the same buffers. OpenCV writes into a borrowed Mat
+ * in place as long as the output has its exact size and type, which is how its output
+ * parameters are normally used.</p>
+ *
+ * <p>Idle buffers beyond {@value #MAX_POOLED_BYTES} bytes are freed instead of pooled. All
+ * methods are safe to call from any thread.</p>
+ */
+public final class MatPool {
+  private static final int GRANULE = 32;
+  private static final long MAX_POOLED_BYTES = 32L << 20;
+  private static MatPool instance;
+
+  private static final class Bucket {
+    final int rows, cols, type;
+    final List<Mat> idle = new ArrayList<>();
+
+    Bucket(int rows, int cols, int type) {
+      this.rows = rows;
+      this.cols = cols;
+      this.type = type;
+    }
+  }
+
+  private final List<Bucket> buckets = new ArrayList<>();
+  /** Borrowed views and the buffers they were cut from. */
+  private final Map<Mat, Mat> views = new IdentityHashMap<>();
+  private long hits, misses, outstandingBytes, pooledBytes;
+
+  /**
+   * Gets the pool shared by every pipeline.
+   */
+  public static synchronized MatPool getInstance() {
+    if (instance == null) {
+      instance = new MatPool();
+    }
+    return instance;
+  }
+
+  /**
+   * Borrows a Mat of exactly {@code rows} by {@code cols} of {@code type}. Its contents are
+   * whatever was left in the buffer.
+   */
+  public synchronized Mat borrow(int rows, int cols, int type) {
+    Bucket bucket = bucket(roundUp(rows), roundUp(cols), type);
+    Mat buffer;
+    if (bucket.idle.isEmpty()) {
+      misses++;
+      buffer = new Mat(bucket.rows, bucket.cols, type);
+    } else {
+      hits++;
+      buffer = bucket.idle.remove(bucket.idle.size() - 1);
+      pooledBytes -= bytes(buffer);
+    }
+    outstandingBytes += bytes(buffer);
+    if (rows == bucket.rows && cols == bucket.cols) {
+      return buffer;
+    }
+    Mat view = buffer.submat(0, rows, 0, cols);
+    views.put(view, buffer);
+    return view;
+  }
+
+  /**
+   * Returns a borrowed Mat to the pool. It must not be used afterwards.
+   */
+  public synchronized void release(Mat mat) {
+    Mat buffer = views.remove(mat);
+    if (buffer != null) {
+      mat.release();
+    } else {
+      buffer = mat;
+    }
+    long size = bytes(buffer);
+    outstandingBytes -= size;
+    if (pooledBytes + size > MAX_POOLED_BYTES || roundUp(buffer.rows()) != buffer.rows()
+        || roundUp(buffer.cols()) != buffer.cols()) {
+      // over the limit, or resized by whoever borrowed it and no longer fits a bucket
+      buffer.release();
+      return;
+    }
+    bucket(buffer.rows(), buffer.cols(), buffer.type()).idle.add(buffer);
+    pooledBytes += size;
+  }
+
+  /**
+   * Borrows a replacement for a Mat previously borrowed from this pool, returning the old one,
+   * unless it already has the size and type wanted. For scratch Mats a pipeline keeps between
+   * frames but whose size can change.
+   *
+   * @param mat the Mat to replace, or null
+   * @return {@code mat}, or the new Mat
+   */
+  public synchronized Mat reborrow(Mat mat, int rows, int cols, int type) {
+    if (mat != null) {
+      if (mat.rows() == rows && mat.cols() == cols && mat.type() == type) {
+        return mat;
+      }
+      release(mat);
+    }
+    return borrow(rows, cols, type);
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Gets the native bytes behind the Mats currently borrowed.
+   */
+  public synchronized long getOutstandingBytes() {
+    return outstandingBytes;
+  }
+
+  /**
+   * Gets the native bytes held idle in the pool.
+   */
+  public synchronized long getPooledBytes() {
+    return pooledBytes;
+  }
+
+  /**
+   * Publishes the counters as "Hits", "Misses", "Outstanding Bytes" and "Pooled Bytes".
+   */
+  public void publish(NetworkTable table) {
+    long hits, misses, outstanding, pooled;
+    synchronized (this) {
+      hits = this.hits;
+      misses = this.misses;
+      outstanding = outstandingBytes;
+      pooled = pooledBytes;
+    }
+    table.getEntry("Hits").setDouble(hits);
+    table.getEntry("Misses").setDouble(misses);
+    table.getEntry("Outstanding Bytes").setDouble(outstanding);
+    table.getEntry("Pooled Bytes").setDouble(pooled);
+  }
+
+  private Bucket bucket(int rows, int cols, int type) {
+    for (int i = 0; i < buckets.size(); i++) {
+      Bucket bucket = buckets.get(i);
+      if (bucket.rows == rows && bucket.cols == cols && bucket.type == type) {
+        return bucket;
+      }
+    }
+    Bucket bucket = new Bucket(rows, cols, type);
+    buckets.add(bucket);
+    return bucket;
+  }
+
+  private static int roundUp(int size) {
+    return (size + GRANULE - 1) / GRANULE * GRANULE;
+  }
+
+  private static long bytes(Mat mat) {
+    return mat.total() * mat.elemSize();
+  }
+}
@@ -0,0 +1,87 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.opencv.core.Mat;
+
+/**
+ * Accounting and release helpers for native memory. Mats hold their pixels outside the Java
+ * heap and only give them back when released or finalized, so a pipeline that drops Mats
+ * without releasing them grows the process while the heap looks flat.
+ */
+public final class NativeMemory {
+  private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+  private NativeMemory() {
+  }
+
+  /**
+   * Gets the bytes of pixel data a Mat refers to, or 0 for null or a released Mat.
+   */
+  public static long bytes(Mat mat) {
+    return mat != null ? mat.total() * mat.elemSize() : 0;
+  }
+
+  /**
+   * Gets the bytes of pixel data a list of Mats refers to.
+   */
+  public static long bytes(List<? extends Mat> mats) {
+    long total = 0;
+    for (int i = 0; i < mats.size(); i++) {
+      total += bytes(mats.get(i));
+    }
+    return total;
+  }
+
+  /**
+   * Releases every Mat in a list and empties it. Nothing else may still use the Mats.
+   */
+  public static void release(List<? extends Mat> mats) {
+    for (int i = 0; i < mats.size(); i++) {
+      mats.get(i).release();
+    }
+    mats.clear();
+  }
+
+  /**
+   * Gets the resident set size of the process from /proc/self/status.
+   *
+   * @return the size in bytes, or -1 where /proc is not available
+   */
+  public static long residentBytes() {
+    try (BufferedReader reader = Files.newBufferedReader(Paths.get("/proc/self/status"),
+        StandardCharsets.US_ASCII)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("VmRSS:")) {
+          // "VmRSS:	   12345 kB"
+          return Long.parseLong(line.substring(6).trim().split("\\s+")[0]) * 1024;
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // not Linux
+    }
+    return -1;
+  }
+
+  /**
+   * Estimates the memory the process holds outside the JVM's own heap and non-heap pools, as
+   * the resident set size less what the JVM has committed. The value is only meaningful as a
+   * trend: committed pages need not be resident, so it may even be negative.
+   *
+   * @return the estimate in bytes, or {@link Long#MIN_VALUE} where the resident size is unknown
+   */
+  public static long outsideJvmBytes() {
+    long resident = residentBytes();
+    if (resident < 0) {
+      return Long.MIN_VALUE;
+    }
+    return resident - MEMORY.getHeapMemoryUsage().getCommitted()
+        - MEMORY.getNonHeapMemoryUsage().getCommitted();
+  }
+}
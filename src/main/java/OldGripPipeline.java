@@ -22,49 +22,69 @@ import edu.wpi.first.vision.VisionPipeline;
 *
 * @author GRIP
 */
-public class OldGripPipeline implements VisionPipeline {
+public class OldGripPipeline implements VisionPipeline, OverlaySource {
 
-	//Outputs
-	private Mat cvCvtcolorOutput = new Mat();
-	private Mat blurOutput = new Mat();
-	private Mat cvThresholdOutput = new Mat();
+	//Outputs, held by the stages of this pipeline's own graph
+	private final StageGraph graph = new StageGraph();
+	private String cvCvtcolorStage, blurStage, cvThresholdStage;
 	private ArrayList<MatOfPoint> findContoursOutput = new ArrayList<MatOfPoint>();
 	private ArrayList<MatOfPoint> filterContoursOutput = new ArrayList<MatOfPoint>();
 	public Mat outputImg = new Mat();
+	//scratch Mats kept between frames, so they are only reallocated when their sizes change
+	private final Mat hierarchy = new Mat();
+	private final MatOfInt hull = new MatOfInt();
+	private final MatOfPoint mopHull = new MatOfPoint();
+	private final MatOfPoint2f contour2f = new MatOfPoint2f();
 	static {
 		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
 	}
 
+	public OldGripPipeline() {
+		declare(graph);
+	}
+
 	/**
 	 * This is the primary method that runs the entire pipeline and updates the outputs.
 	 */
 	public void process(Mat source0) {
 		outputImg = source0;
+		graph.run(source0);
+		Imgproc.drawContours(outputImg, filterContoursOutput, 0, new Scalar(0,0,255));
+		for (int i = 0; i <  filterContoursOutput.size(); i++){
+			Imgproc.drawContours(outputImg, filterContoursOutput, i , new Scalar(0,0,255));
+
+		}
+	}
+
+	/**
+	 * Declares this pipeline's steps as stages of {@code graph}, which is this pipeline's own
+	 * graph or that of a pipeline running it alongside others. After the graph runs, the
+	 * contours are in {@link #filterContoursOutput()}.
+	 * @param graph the graph to declare the stages in
+	 * @return the name of the last stage
+	 */
+	String declare(StageGraph graph) {
 		// Step CV_cvtColor0:
-		Mat cvCvtcolorSrc = source0;
 		int cvCvtcolorCode = Imgproc.COLOR_BGR2GRAY;
-		cvCvtcolor(cvCvtcolorSrc, cvCvtcolorCode, cvCvtcolorOutput);
+		//named after what they compute, so another graph only shares stages with the same parameters
+		String cvCvtcolorOutput = graph.add("gray", (in, out) -> cvCvtcolor(in[0], cvCvtcolorCode, out), StageGraph.FRAME);
 
 		// Step Blur0:
-		Mat blurInput = cvCvtcolorOutput;
 		BlurType blurType = BlurType.get("Box Blur");
 		double blurRadius = 2.402401829625035;
-		blur(blurInput, blurType, blurRadius, blurOutput);
+		String blurOutput = graph.add(cvCvtcolorOutput + "/" + blurType + " " + blurRadius, (in, out) -> blur(in[0], blurType, blurRadius, out), cvCvtcolorOutput);
 
 		// Step CV_Threshold0:
-		Mat cvThresholdSrc = blurOutput;
 		double cvThresholdThresh = 169.0;
 		double cvThresholdMaxval = 255.0;
 		int cvThresholdType = Imgproc.THRESH_BINARY;
-		cvThreshold(cvThresholdSrc, cvThresholdThresh, cvThresholdMaxval, cvThresholdType, cvThresholdOutput);
+		String cvThresholdOutput = graph.add(blurOutput + "/threshold " + cvThresholdThresh, (in, out) ->
+			cvThreshold(in[0], cvThresholdThresh, cvThresholdMaxval, cvThresholdType, out), blurOutput);
 
 		// Step Find_Contours0:
-		Mat findContoursInput = cvThresholdOutput;
 		boolean findContoursExternalOnly = false;
-		findContours(findContoursInput, findContoursExternalOnly, findContoursOutput);
 
 		// Step Filter_Contours0:
-		ArrayList<MatOfPoint> filterContoursContours = findContoursOutput;
 		double filterContoursMinArea = 0.0;
 		double filterContoursMinPerimeter = 0.0;
 		double filterContoursMinWidth = 57.0;
@@ -76,14 +96,21 @@ public class OldGripPipeline implements VisionPipeline {
 		double filterContoursMinVertices = 0.0;
 		double filterContoursMinRatio = 0.0;
 		double filterContoursMaxRatio = 1000.0;
-		filterContours(filterContoursContours, filterContoursMinArea, filterContoursMinPerimeter, filterContoursMinWidth, filterContoursMaxWidth, filterContoursMinHeight, filterContoursMaxHeight, filterContoursSolidity, filterContoursMaxVertices, filterContoursMinVertices, filterContoursMinRatio, filterContoursMaxRatio, filterContoursOutput);
-		System.out.println(filterContoursContours.get(0).toList());
-		System.out.println("Countours: " + filterContoursOutput.size());
-		Imgproc.drawContours(outputImg, filterContoursOutput, 0, new Scalar(0,0,255));
-		for (int i = 0; i <  filterContoursOutput.size(); i++){
-			Imgproc.drawContours(outputImg, filterContoursOutput, i , new Scalar(0,0,255));
-
+		if (graph == this.graph) {
+			cvCvtcolorStage = cvCvtcolorOutput;
+			blurStage = blurOutput;
+			cvThresholdStage = cvThresholdOutput;
 		}
+		//writes this instance's contour lists, so only one instance can declare it in a graph
+		return graph.add(cvThresholdOutput + "/filtered contours", (in, out) -> {
+			findContours(in[0], findContoursExternalOnly, findContoursOutput);
+			filterContours(findContoursOutput, filterContoursMinArea, filterContoursMinPerimeter, filterContoursMinWidth, filterContoursMaxWidth, filterContoursMinHeight, filterContoursMaxHeight, filterContoursSolidity, filterContoursMaxVertices, filterContoursMinVertices, filterContoursMinRatio, filterContoursMaxRatio, filterContoursOutput);
+		}, cvThresholdOutput);
+	}
+
+	@Override
+	public void snapshotOverlay(OverlayRenderer.Snapshot snapshot) {
+		snapshot.setImage(outputImg);
 	}
 
 	/**
@@ -91,7 +118,7 @@ public class OldGripPipeline implements VisionPipeline {
 	 * @return Mat output from CV_cvtColor.
 	 */
 	public Mat cvCvtcolorOutput() {
-		return cvCvtcolorOutput;
+		return graph.output(cvCvtcolorStage);
 	}
 
 	/**
@@ -99,7 +126,7 @@ public class OldGripPipeline implements VisionPipeline {
 	 * @return Mat output from Blur.
 	 */
 	public Mat blurOutput() {
-		return blurOutput;
+		return graph.output(blurStage);
 	}
 
 	/**
@@ -107,7 +134,7 @@ public class OldGripPipeline implements VisionPipeline {
 	 * @return Mat output from CV_Threshold.
 	 */
 	public Mat cvThresholdOutput() {
-		return cvThresholdOutput;
+		return graph.output(cvThresholdStage);
 	}
 
 	/**
@@ -224,8 +251,8 @@ public class OldGripPipeline implements VisionPipeline {
 	 */
 	private void findContours(Mat input, boolean externalOnly,
 		List<MatOfPoint> contours) {
-		Mat hierarchy = new Mat();
-		contours.clear();
+		//free the last frame's contours now rather than whenever the finalizer gets to them
+		NativeMemory.release(contours);
 		int mode;
 		if (externalOnly) {
 			mode = Imgproc.RETR_EXTERNAL;
@@ -258,7 +285,6 @@ public class OldGripPipeline implements VisionPipeline {
 		double minPerimeter, double minWidth, double maxWidth, double minHeight, double
 		maxHeight, double[] solidity, double maxVertexCount, double minVertexCount, double
 		minRatio, double maxRatio, List<MatOfPoint> output) {
-		final MatOfInt hull = new MatOfInt();
 		output.clear();
 		//operation
 		for (int i = 0; i < inputContours.size(); i++) {
@@ -268,9 +294,9 @@ public class OldGripPipeline implements VisionPipeline {
 			if (bb.height < minHeight || bb.height > maxHeight) continue;
 			final double area = Imgproc.contourArea(contour);
 			if (area < minArea) continue;
-			if (Imgproc.arcLength(new MatOfPoint2f(contour.toArray()), true) < minPerimeter) continue;
+			contour.convertTo(contour2f, CvType.CV_32F);
+			if (Imgproc.arcLength(contour2f, true) < minPerimeter) continue;
 			Imgproc.convexHull(contour, hull);
-			MatOfPoint mopHull = new MatOfPoint();
 			mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
 			for (int j = 0; j < hull.size().height; j++) {
 				int index = (int)hull.get(j, 0)[0];
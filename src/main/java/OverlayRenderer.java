@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import edu.wpi.cscore.CvSource;
+
+/**
+ * Draws the debug overlay and sends it to the output stream on its own thread. Vision threads
+ * {@link #offer} each processed frame; a copy of the frame and its results is only taken when a
+ * client is watching the stream, the renderer is idle and "Overlay FPS" allows another frame,
+ * and everything else happens off the vision thread. Annotation therefore never delays the
+ * offsets, and costs nothing at all while no dashboard is connected.
+ */
+public class OverlayRenderer {
+  private static final Scalar CENTER_COLOR = new Scalar(255, 0, 0);
+  private static final Scalar CLOCKWISE_COLOR = new Scalar(0, 0, 255);
+  private static final Scalar COUNTERCLOCKWISE_COLOR = new Scalar(255, 0, 255);
+  private static final Scalar BEST_TARGET_COLOR = new Scalar(0, 0, 255);
+  private static final Scalar TARGET_COLOR = new Scalar(0, 255, 255);
+  private static final Scalar CIRCLE_COLOR = new Scalar(0, 0, 255);
+
+  /**
+   * A copy of everything the overlay draws, taken on the vision thread.
+   */
+  public static final class Snapshot {
+    final Mat image = new Mat();
+    final List<MatOfPoint> contours = new ArrayList<>();
+    boolean[] tilted = new boolean[16];
+    int contourCount;
+    double[] midpoints = new double[4];
+    int targetCount;
+    boolean visionMode;
+    double[] circles = new double[12];
+    int circleCount;
+
+    /**
+     * Copies a frame that needs nothing drawn over it, from a pipeline that annotates its own
+     * output.
+     */
+    public void setImage(Mat frame) {
+      frame.copyTo(image);
+      visionMode = false;
+      contourCount = 0;
+      targetCount = 0;
+      circleCount = 0;
+    }
+
+    /**
+     * Adds circles to draw, found in the raw frame.
+     *
+     * @param found the 1xN x, y, radius Mat from HoughCircles
+     * @param flip  whether the snapshot's image is the raw frame rotated 180 degrees
+     */
+    public void setCircles(Mat found, boolean flip) {
+      circleCount = found.cols();
+      if (circles.length < 3 * circleCount) {
+        circles = new double[6 * circleCount];
+      }
+      for (int i = 0; i < circleCount; i++) {
+        double[] c = found.get(0, i);
+        circles[3 * i] = flip ? image.width() - 1 - c[0] : c[0];
+        circles[3 * i + 1] = flip ? image.height() - 1 - c[1] : c[1];
+        circles[3 * i + 2] = c[2];
+      }
+    }
+
+    /**
+     * Copies a processed frame and its results.
+     *
+     * @param frame      the processed frame
+     * @param flip       whether the frame must be flipped to match the contours
+     * @param visionMode whether the frame was searched for targets
+     * @param features   the features of the filtered contours, whose contours are copied
+     * @param count      the number of features
+     * @param matcher    the matcher holding the frame's targets
+     */
+    public void set(Mat frame, boolean flip, boolean visionMode, ContourFeatures[] features,
+        int count, TargetMatcher matcher) {
+      if (flip) {
+        Core.flip(frame, image, -1);
+      } else {
+        frame.copyTo(image);
+      }
+      this.visionMode = visionMode;
+      circleCount = 0;
+      while (contours.size() < count) {
+        contours.add(new MatOfPoint());
+      }
+      if (tilted.length < count) {
+        tilted = new boolean[2 * count];
+      }
+      for (int i = 0; i < count; i++) {
+        features[i].contour.copyTo(contours.get(i));
+        tilted[i] = features[i].tiltedClockwise;
+      }
+      contourCount = count;
+      targetCount = matcher.getTargetCount();
+      if (midpoints.length < targetCount) {
+        midpoints = new double[targetCount];
+      }
+      for (int i = 0; i < targetCount; i++) {
+        midpoints[i] = matcher.getMidpoint(i);
+      }
+    }
+  }
+
+  private final CvSource output;
+  private final PipelineTuning tuning = PipelineTuning.getInstance();
+  private final Snapshot snapshot = new Snapshot();
+  private boolean busy;
+  private long lastOffer;
+
+  /**
+   * Starts a renderer for {@code output}.
+   */
+  public OverlayRenderer(CvSource output) {
+    this.output = output;
+    Thread thread = new Thread(this::renderLoop, "Overlay Renderer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Takes a snapshot of the pipeline's last frame for rendering, if one is wanted right now.
+   * Safe to call from several vision threads.
+   *
+   * @return whether a snapshot was taken
+   */
+  public synchronized boolean offer(OverlaySource pipeline) {
+    if (busy || !output.isEnabled()) {
+      return false;
+    }
+    double fps = tuning.get().overlayFps;
+    long now = System.nanoTime();
+    if (fps <= 0 || now - lastOffer < 1e9 / fps) {
+      return false;
+    }
+    lastOffer = now;
+    pipeline.snapshotOverlay(snapshot);
+    busy = true;
+    notifyAll();
+    return true;
+  }
+
+  private void renderLoop() {
+    try {
+      for (;;) {
+        synchronized (this) {
+          while (!busy) {
+            wait();
+          }
+        }
+        draw(snapshot);
+        output.putFrame(snapshot.image);
+        synchronized (this) {
+          busy = false;
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Draws any circles, and in vision mode the centre line, the contours coloured by tilt and the
+   * target midpoints, the best target in red and the runners-up in yellow.
+   */
+  static void draw(Snapshot snapshot) {
+    Mat image = snapshot.image;
+    for (int i = 0; i < snapshot.circleCount; i++) {
+      Imgproc.circle(image, new Point(snapshot.circles[3 * i], snapshot.circles[3 * i + 1]),
+          (int) Math.round(snapshot.circles[3 * i + 2]), CIRCLE_COLOR, 2);
+    }
+    if (!snapshot.visionMode) {
+      return;
+    }
+    Imgproc.line(image, new Point(image.width() / 2, 0), new Point(image.width() / 2, image.height()), CENTER_COLOR, 1);
+    for (int i = 0; i < snapshot.contourCount; i++) {
+      Imgproc.drawContours(image, snapshot.contours, i,
+          snapshot.tilted[i] ? CLOCKWISE_COLOR : COUNTERCLOCKWISE_COLOR);
+    }
+    for (int i = snapshot.targetCount - 1; i >= 0; i--) {
+      double x = snapshot.midpoints[i];
+      Imgproc.line(image, new Point(x, 0), new Point(x, image.height()),
+          i == 0 ? BEST_TARGET_COLOR : TARGET_COLOR, 1);
+    }
+  }
+}
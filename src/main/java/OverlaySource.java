@@ -0,0 +1,9 @@
+/**
+ * A pipeline that can hand its last frame to the {@link OverlayRenderer}.
+ */
+public interface OverlaySource {
+  /**
+   * Copies the last processed frame, and anything the overlay should draw over it.
+   */
+  void snapshotOverlay(OverlayRenderer.Snapshot snapshot);
+}
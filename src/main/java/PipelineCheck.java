@@ -0,0 +1,127 @@
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+/**
+ * Checks the shortcuts in {@link GripPipeline} against the exact paths they replace, on
+ * recorded frames, and exits with status 1 if any frame disagrees. Run it on the benchmark
+ * corpus after changing the pipeline, alongside {@link Replay} and {@link Soak}.
+ *
+ * <ul>
+ * <li>lut: the {@link LutSegmenter} mask must differ from cvtColor and inRange on at most
+ * {@link LutSegmenter#MAX_MISMATCH} of the pixels</li>
+ * <li>flip: an upside-down camera must give the same offsets and target count with "Flip
+ * Results" on, which flips the contours, as with it off, which flips the pixels</li>
+ * </ul>
+ *
+ * <pre>
+ *   java -cp java-multiCameraServer-all.jar PipelineCheck &lt;image dir or video&gt; [check...]
+ * </pre>
+ *
+ * <p>Every check runs when none are named.</p>
+ */
+public final class PipelineCheck {
+  private static final String[] CHECKS = {"lut", "flip"};
+
+  static {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  private PipelineCheck() {
+  }
+
+  /**
+   * Main.
+   */
+  public static void main(String... args) {
+    if (args.length < 1) {
+      System.err.println("usage: PipelineCheck <image dir or video> [lut] [flip]");
+      System.exit(2);
+    }
+    List<Mat> frames = Batch.load(new File(args[0]));
+    if (frames.isEmpty()) {
+      System.err.println("no frames in '" + args[0] + "'");
+      System.exit(2);
+    }
+    String[] checks = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : CHECKS;
+    int failures = 0;
+    for (String check : checks) {
+      switch (check) {
+        case "lut":
+          failures += checkLut(frames);
+          break;
+        case "flip":
+          failures += checkFlip(frames);
+          break;
+        default:
+          System.err.println("unknown check '" + check + "'");
+          System.exit(2);
+      }
+    }
+    System.out.println(failures == 0 ? "PASS" : "FAIL: " + failures + " frame checks failed");
+    System.exit(failures == 0 ? 0 : 1);
+  }
+
+  private static int checkLut(List<Mat> frames) {
+    PipelineParameters params = PipelineParameters.defaults();
+    GripPipeline pipeline = new GripPipeline();
+    LutSegmenter segmenter = new LutSegmenter();
+    Mat exact = new Mat();
+    Mat lut = new Mat();
+    int failures = 0;
+    for (int i = 0; i < frames.size(); i++) {
+      Mat frame = frames.get(i);
+      pipeline.hslThreshold(frame, params.hslLower, params.hslUpper, exact);
+      segmenter.threshold(frame, params.hslLower, params.hslUpper, lut);
+      double mismatch = LutSegmenter.mismatch(lut, exact);
+      boolean failed = mismatch > LutSegmenter.MAX_MISMATCH;
+      System.out.printf("lut frame %d: %.4f%% of pixels differ%s%n", i, mismatch * 100, failed ? " FAIL" : "");
+      if (failed) {
+        failures++;
+      }
+    }
+    exact.release();
+    lut.release();
+    return failures;
+  }
+
+  private static int checkFlip(List<Mat> frames) {
+    // the target pairing only runs in vision mode
+    PipelineTuning.set(PipelineParameters.Tunable.VISION_MODE, true);
+    PipelineTuning.set(PipelineParameters.Tunable.FLIP_RESULTS, false);
+    double[][] pixels = offsets(frames);
+    PipelineTuning.set(PipelineParameters.Tunable.FLIP_RESULTS, true);
+    double[][] results = offsets(frames);
+    PipelineTuning.set(PipelineParameters.Tunable.FLIP_RESULTS, PipelineParameters.Tunable.FLIP_RESULTS.defaultValue);
+    int failures = 0;
+    for (int i = 0; i < frames.size(); i++) {
+      boolean failed = Math.abs(pixels[i][0] - results[i][0]) > 1e-9 || pixels[i][1] != results[i][1];
+      System.out.printf("flip frame %d: offset %.6f with %d targets flipping pixels, %.6f with %d flipping results%s%n",
+          i, pixels[i][0], (int) pixels[i][1], results[i][0], (int) results[i][1], failed ? " FAIL" : "");
+      if (failed) {
+        failures++;
+      }
+    }
+    return failures;
+  }
+
+  /**
+   * Runs the frames in order through a new upside-down GripPipeline, so each setting starts
+   * from the same state, and gets each frame's midOffset and target count.
+   */
+  private static double[][] offsets(List<Mat> frames) {
+    GripPipeline pipeline = new GripPipeline(true, null);
+    double[][] offsets = new double[frames.size()][];
+    Mat working = new Mat();
+    for (int i = 0; i < frames.size(); i++) {
+      frames.get(i).copyTo(working);
+      pipeline.process(working);
+      offsets[i] = new double[] {pipeline.midOffset, pipeline.getMatcher().getTargetCount()};
+    }
+    working.release();
+    return offsets;
+  }
+}
@@ -0,0 +1,179 @@
+import java.util.Arrays;
+
+import org.opencv.core.Scalar;
+
+/**
+ * An immutable snapshot of every tunable the vision pipeline reads. A pipeline grabs one
+ * snapshot at the start of a frame and reads plain fields from it from then on, so nothing is
+ * looked up or allocated per frame. New snapshots are made by {@link PipelineTuning} when an
+ * entry changes.
+ */
+public final class PipelineParameters {
+  /**
+   * Every tunable, with its NetworkTables key and default. Tunables live in the
+   * RaspberryPi/Tuning table, except the robot-driven ones which are set in RaspberryPi itself.
+   */
+  public enum Tunable {
+    REVERSE_DRIVE("Reverse Drive", false, false),
+    VISION_MODE("Vision Mode", false, false),
+    HUE_MIN("Hue Min", 64.0),
+    HUE_MAX("Hue Max", 111.0),
+    SATURATION_MIN("Saturation Min", 191.0),
+    SATURATION_MAX("Saturation Max", 255.0),
+    LUMINANCE_MIN("Luminance Min", 78.0),
+    LUMINANCE_MAX("Luminance Max", 245.0),
+    FLIP_RESULTS("Flip Results", false),
+    SEGMENTATION("Segmentation", "HSL"),
+    BLUR_TYPE("Blur Type", "Box Blur"),
+    BLUR_RADIUS("Blur Radius", 2.0),
+    MIN_AREA("Min Area", 60.0),
+    MIN_PERIMETER("Min Perimeter", 0.0),
+    MIN_WIDTH("Min Width", 0.0),
+    MAX_WIDTH("Max Width", 1000.0),
+    MIN_HEIGHT("Min Height", 5.0),
+    MAX_HEIGHT("Max Height", 1000.0),
+    MIN_SOLIDITY("Min Solidity", 79.0),
+    MAX_SOLIDITY("Max Solidity", 100.0),
+    MIN_VERTICES("Min Vertices", 0.0),
+    MAX_VERTICES("Max Vertices", 1000000.0),
+    MIN_RATIO("Min Ratio", 0.0),
+    MAX_RATIO("Max Ratio", 1000.0),
+    PYRAMID_SCALE("Pyramid Scale", 1.0),
+    REFINE_MARGIN("Refine Margin", 2.0),
+    MAX_TARGETS("Max Targets", 3.0),
+    PAIR_SPACING("Pair Spacing", 1.9),
+    MIN_PAIR_SCORE("Min Pair Score", 0.5),
+    TRACKING("Tracking", false),
+    TRACK_ALPHA("Track Alpha", 0.6),
+    TRACK_BETA("Track Beta", 0.2),
+    TRACK_HOLD_MS("Track Hold Ms", 250.0),
+    OVERLAY_FPS("Overlay FPS", 15.0),
+    ROI_TRACKING("ROI Tracking", false),
+    ROI_PADDING("ROI Padding", 20.0),
+    ROI_FULL_SEARCH_INTERVAL("ROI Full Search Interval", 15.0);
+
+    public final String key;
+    public final Object defaultValue;
+    public final boolean tuning;
+
+    Tunable(String key, Object defaultValue) {
+      this(key, defaultValue, true);
+    }
+
+    Tunable(String key, Object defaultValue, boolean tuning) {
+      this.key = key;
+      this.defaultValue = defaultValue;
+      this.tuning = tuning;
+    }
+  }
+
+  private static final Tunable[] TUNABLES = Tunable.values();
+
+  private final Object[] values;
+
+  public final boolean reverseDrive;
+  public final boolean visionMode;
+  public final double[] hue, saturation, luminance;
+  /** HLS bounds in the channel order Core.inRange expects. */
+  public final Scalar hslLower, hslUpper;
+  /** Whether to process upside-down frames as they are and rotate the contours instead. */
+  public final boolean flipResults;
+  /** Whether to segment with {@link LutSegmenter} ("LUT") instead of cvtColor and inRange ("HSL"). */
+  public final boolean lutSegmentation;
+  public final GripPipeline.BlurType blurType;
+  public final double blurRadius;
+  public final double minArea, minPerimeter, minWidth, maxWidth, minHeight, maxHeight;
+  public final double[] solidity;
+  public final double minVertices, maxVertices, minRatio, maxRatio;
+  /** Scale of the coarse search (1 turns coarse-to-fine off) and the padding in pixels around
+   *  each coarse candidate when it is refined at full resolution. */
+  public final double pyramidScale, refineMargin;
+  /** How many targets to report, the expected gap between a pair's centroids in strip heights
+   *  (about 1.9 for the 2019 vision targets), and the lowest score a pair may have. */
+  public final int maxTargets;
+  public final double pairSpacing, minPairScore;
+  /** Whether "Center Offset" comes from the target tracker, its alpha-beta gains, and how long
+   *  it holds a target that has gone unseen. */
+  public final boolean tracking;
+  public final double trackAlpha, trackBeta, trackHoldMs;
+  /** The most frames per second to annotate for the debug stream, or 0 for none. */
+  public final double overlayFps;
+  /** Whether to search only around the last target pair, how many pixels to pad it by, and how
+   *  many frames to go between full-frame searches. */
+  public final boolean roiTracking;
+  public final double roiPadding, roiFullSearchInterval;
+
+  private PipelineParameters(Object[] values) {
+    this.values = values;
+    reverseDrive = getBoolean(Tunable.REVERSE_DRIVE);
+    visionMode = getBoolean(Tunable.VISION_MODE);
+    hue = new double[] {getDouble(Tunable.HUE_MIN), getDouble(Tunable.HUE_MAX)};
+    saturation = new double[] {getDouble(Tunable.SATURATION_MIN), getDouble(Tunable.SATURATION_MAX)};
+    luminance = new double[] {getDouble(Tunable.LUMINANCE_MIN), getDouble(Tunable.LUMINANCE_MAX)};
+    hslLower = new Scalar(hue[0], luminance[0], saturation[0]);
+    hslUpper = new Scalar(hue[1], luminance[1], saturation[1]);
+    flipResults = getBoolean(Tunable.FLIP_RESULTS);
+    lutSegmentation = "LUT".equalsIgnoreCase(getString(Tunable.SEGMENTATION));
+    blurType = GripPipeline.BlurType.get(getString(Tunable.BLUR_TYPE));
+    blurRadius = getDouble(Tunable.BLUR_RADIUS);
+    minArea = getDouble(Tunable.MIN_AREA);
+    minPerimeter = getDouble(Tunable.MIN_PERIMETER);
+    minWidth = getDouble(Tunable.MIN_WIDTH);
+    maxWidth = getDouble(Tunable.MAX_WIDTH);
+    minHeight = getDouble(Tunable.MIN_HEIGHT);
+    maxHeight = getDouble(Tunable.MAX_HEIGHT);
+    solidity = new double[] {getDouble(Tunable.MIN_SOLIDITY), getDouble(Tunable.MAX_SOLIDITY)};
+    minVertices = getDouble(Tunable.MIN_VERTICES);
+    maxVertices = getDouble(Tunable.MAX_VERTICES);
+    minRatio = getDouble(Tunable.MIN_RATIO);
+    maxRatio = getDouble(Tunable.MAX_RATIO);
+    pyramidScale = getDouble(Tunable.PYRAMID_SCALE);
+    refineMargin = getDouble(Tunable.REFINE_MARGIN);
+    maxTargets = (int) getDouble(Tunable.MAX_TARGETS);
+    pairSpacing = getDouble(Tunable.PAIR_SPACING);
+    minPairScore = getDouble(Tunable.MIN_PAIR_SCORE);
+    tracking = getBoolean(Tunable.TRACKING);
+    trackAlpha = getDouble(Tunable.TRACK_ALPHA);
+    trackBeta = getDouble(Tunable.TRACK_BETA);
+    trackHoldMs = getDouble(Tunable.TRACK_HOLD_MS);
+    overlayFps = getDouble(Tunable.OVERLAY_FPS);
+    roiTracking = getBoolean(Tunable.ROI_TRACKING);
+    roiPadding = getDouble(Tunable.ROI_PADDING);
+    roiFullSearchInterval = getDouble(Tunable.ROI_FULL_SEARCH_INTERVAL);
+  }
+
+  /**
+   * Gets a snapshot holding every tunable's default.
+   */
+  public static PipelineParameters defaults() {
+    Object[] values = new Object[TUNABLES.length];
+    for (Tunable tunable : TUNABLES) {
+      values[tunable.ordinal()] = tunable.defaultValue;
+    }
+    return new PipelineParameters(values);
+  }
+
+  /**
+   * Gets a copy of this snapshot with one tunable changed. Values of the wrong type are ignored.
+   */
+  public PipelineParameters with(Tunable tunable, Object value) {
+    if (value == null || value.getClass() != tunable.defaultValue.getClass()) {
+      return this;
+    }
+    Object[] changed = Arrays.copyOf(values, values.length);
+    changed[tunable.ordinal()] = value;
+    return new PipelineParameters(changed);
+  }
+
+  public double getDouble(Tunable tunable) {
+    return (Double) values[tunable.ordinal()];
+  }
+
+  public boolean getBoolean(Tunable tunable) {
+    return (Boolean) values[tunable.ordinal()];
+  }
+
+  public String getString(Tunable tunable) {
+    return (String) values[tunable.ordinal()];
+  }
+}
@@ -0,0 +1,189 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.vision.VisionPipeline;
+
+/**
+ * The pipelines that can be switched between at runtime, chosen by the "pipelines" list in
+ * /boot/frc.json. {@link #create} builds one instance of each and {@link WarmUp warms it up} on
+ * synthetic frames so it is JIT-compiled before the first live frame; the "Pipeline" entry of a camera's table
+ * then picks which one runs, effective from the next frame.
+ *
+ * <p>Known pipelines: "grip" ({@link GripPipeline}), "oldgrip" ({@link OldGripPipeline}),
+ * "circles" ({@link Main.MyPipeline}) and "combined" ({@link CombinedPipeline}, all three on
+ * one frame).</p>
+ */
+public final class PipelineRegistry {
+  /** The default warm-up budget, in seconds. */
+  private static final double WARM_UP_BUDGET = 10;
+
+  /**
+   * Where a camera's pipelines are published from.
+   */
+  public static final class Context {
+    final Boolean upsideDown;
+    final NetworkTable outputTable;
+    final boolean independentFrames;
+
+    /**
+     * @param upsideDown  whether the camera is mounted upside down, or null to follow "Reverse Drive"
+     * @param outputTable the camera's table, or null for RaspberryPi
+     */
+    public Context(Boolean upsideDown, NetworkTable outputTable) {
+      this(upsideDown, outputTable, false);
+    }
+
+    /**
+     * @param upsideDown        whether the camera is mounted upside down, or null to follow "Reverse Drive"
+     * @param outputTable       the camera's table, or null for RaspberryPi
+     * @param independentFrames whether consecutive frames go to different instances, which turns
+     *                          off "Tracking" and "ROI Tracking"
+     */
+    public Context(Boolean upsideDown, NetworkTable outputTable, boolean independentFrames) {
+      this.upsideDown = upsideDown;
+      this.outputTable = outputTable;
+      this.independentFrames = independentFrames;
+    }
+  }
+
+  /**
+   * The pipeline selected in one table, shared by every {@link SwitchingPipeline} reading it.
+   */
+  public static final class Selection {
+    private volatile int index;
+
+    public int get() {
+      return index;
+    }
+  }
+
+  private static final String[] KNOWN = {"grip", "oldgrip", "circles", "combined"};
+
+  private final String[] names;
+  private final int defaultIndex;
+  private double warmUpBudget = WARM_UP_BUDGET;
+
+  /**
+   * Creates a registry of the named pipelines.
+   *
+   * @param names       the pipelines to build, each one of the known names
+   * @param defaultName the one selected until the "Pipeline" entry says otherwise
+   * @throws IllegalArgumentException if a name isn't known or the default isn't listed
+   */
+  public PipelineRegistry(List<String> names, String defaultName) {
+    for (String name : names) {
+      if (!Arrays.asList(KNOWN).contains(name)) {
+        throw new IllegalArgumentException("unknown pipeline '" + name + "'");
+      }
+    }
+    this.names = names.toArray(new String[0]);
+    defaultIndex = names.indexOf(defaultName);
+    if (defaultIndex < 0) {
+      throw new IllegalArgumentException("default pipeline '" + defaultName + "' is not in the pipelines list");
+    }
+  }
+
+  /**
+   * Gets a registry of just the GripPipeline.
+   */
+  public static PipelineRegistry gripOnly() {
+    return new PipelineRegistry(Arrays.asList("grip"), "grip");
+  }
+
+  /**
+   * Publishes "Pipelines" (the names available) and "Pipeline" (the one selected) in
+   * {@code table}, and follows changes to "Pipeline". Unknown names are ignored.
+   */
+  public Selection select(NetworkTable table) {
+    Selection selection = new Selection();
+    selection.index = defaultIndex;
+    table.getEntry("Pipelines").setStringArray(names);
+    NetworkTableEntry entry = table.getEntry("Pipeline");
+    entry.setDefaultString(names[defaultIndex]);
+    entry.addListener(notification -> {
+      int index = Arrays.asList(names).indexOf(notification.value.getString());
+      if (index >= 0) {
+        selection.index = index;
+      } else {
+        System.err.println("unknown pipeline '" + notification.value.getString() + "' selected");
+      }
+    }, EntryListenerFlags.kImmediate | EntryListenerFlags.kNew | EntryListenerFlags.kUpdate
+        | EntryListenerFlags.kLocal);
+    return selection;
+  }
+
+  /**
+   * Sets the longest {@link #create} may spend warming up its pipelines.
+   *
+   * @param seconds the budget in seconds
+   */
+  public void setWarmUpBudget(double seconds) {
+    warmUpBudget = seconds;
+  }
+
+  /**
+   * Builds and warms one instance of every pipeline for a camera. How long the warm-up took is
+   * published as "Warm-up Ms", "Warm-up Frames" and "Warm-up Pairs" in the Startup subtable of
+   * the context's table, and how long the first live frame took as "First Frame Ms".
+   */
+  public SwitchingPipeline create(Context context, Selection selection) {
+    return create(context, selection, 1)[0];
+  }
+
+  /**
+   * Builds {@code count} instances of every pipeline for one camera, for runners that spread its
+   * frames over several. Only the first set is warmed, since the compiled code is shared by every
+   * instance, and the warm-up and the first live frame are published once for the camera,
+   * whichever instance takes that frame.
+   */
+  public SwitchingPipeline[] create(Context context, Selection selection, int count) {
+    VisionPipeline[][] sets = new VisionPipeline[count][names.length];
+    for (VisionPipeline[] pipelines : sets) {
+      for (int i = 0; i < names.length; i++) {
+        pipelines[i] = build(names[i], context);
+      }
+    }
+    WarmUp.Result warmUp = WarmUp.run(names, sets[0], warmUpBudget);
+    NetworkTable table = context.outputTable != null ? context.outputTable
+        : NetworkTableInstance.getDefault().getTable("RaspberryPi");
+    NetworkTable startupTable = table.getSubTable("Startup");
+    startupTable.getEntry("Warm-up Ms").setDouble(warmUp.nanos / 1e6);
+    startupTable.getEntry("Warm-up Frames").setDouble(warmUp.frames);
+    startupTable.getEntry("Warm-up Pairs").setDouble(warmUp.pairs);
+    AtomicReference<NetworkTableEntry> firstFrame = new AtomicReference<>(startupTable.getEntry("First Frame Ms"));
+    SwitchingPipeline[] switching = new SwitchingPipeline[count];
+    for (int i = 0; i < count; i++) {
+      switching[i] = new SwitchingPipeline(sets[i], selection, firstFrame);
+    }
+    return switching;
+  }
+
+  /**
+   * Builds one pipeline by name, without warming it.
+   *
+   * @throws IllegalArgumentException if the name isn't known
+   */
+  static VisionPipeline build(String name, Context context) {
+    switch (name) {
+      case "grip":
+        GripPipeline grip = new GripPipeline(context.upsideDown, context.outputTable);
+        grip.setIndependentFrames(context.independentFrames);
+        return grip;
+      case "oldgrip":
+        return new OldGripPipeline();
+      case "circles":
+        return new Main.MyPipeline();
+      case "combined":
+        CombinedPipeline combined = new CombinedPipeline(context.upsideDown, context.outputTable);
+        combined.getGrip().setIndependentFrames(context.independentFrames);
+        return combined;
+      default:
+        throw new IllegalArgumentException("unknown pipeline '" + name + "'");
+    }
+  }
+}
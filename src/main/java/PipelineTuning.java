@@ -0,0 +1,66 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+
+/**
+ * Keeps the current {@link PipelineParameters} in step with NetworkTables. Each tunable's entry
+ * is published with its default so it shows up on the dashboard, and an entry listener swaps in a
+ * new snapshot whenever one changes, so values can be tuned live without redeploying.
+ */
+public final class PipelineTuning {
+  private static PipelineTuning instance;
+
+  private final AtomicReference<PipelineParameters> current =
+      new AtomicReference<>(PipelineParameters.defaults());
+
+  /**
+   * Gets the tuning for the default NetworkTables instance, creating it on first use.
+   */
+  public static synchronized PipelineTuning getInstance() {
+    if (instance == null) {
+      instance = new PipelineTuning(NetworkTableInstance.getDefault().getTable("RaspberryPi"));
+    }
+    return instance;
+  }
+
+  private PipelineTuning(NetworkTable table) {
+    NetworkTable tuningTable = table.getSubTable("Tuning");
+    int flags = EntryListenerFlags.kImmediate | EntryListenerFlags.kNew
+        | EntryListenerFlags.kUpdate | EntryListenerFlags.kLocal;
+    for (PipelineParameters.Tunable tunable : PipelineParameters.Tunable.values()) {
+      NetworkTable owner = tunable.tuning ? tuningTable : table;
+      NetworkTableEntry entry = owner.getEntry(tunable.key);
+      if (tunable.tuning) {
+        entry.setDefaultValue(tunable.defaultValue);
+      }
+      // pick up values that are already set now, rather than when the listener thread gets to them
+      if (entry.exists()) {
+        current.updateAndGet(params -> params.with(tunable, entry.getValue().getValue()));
+      }
+      owner.addEntryListener(tunable.key, (source, key, changedEntry, value, flag) ->
+          current.updateAndGet(params -> params.with(tunable, value.getValue())), flags);
+    }
+  }
+
+  /**
+   * Sets a tunable in the default instance's tables and waits until the snapshot has picked it
+   * up, for tools that run pipelines without a dashboard.
+   */
+  public static void set(PipelineParameters.Tunable tunable, Object value) {
+    getInstance();
+    NetworkTableInstance inst = NetworkTableInstance.getDefault();
+    NetworkTable table = inst.getTable("RaspberryPi");
+    (tunable.tuning ? table.getSubTable("Tuning") : table).getEntry(tunable.key).setValue(value);
+    inst.waitForEntryListenerQueue(1.0);
+  }
+
+  /**
+   * Gets the current snapshot. Read this once per frame.
+   */
+  public PipelineParameters get() {
+    return current.get();
+  }
+}
@@ -0,0 +1,200 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+import org.opencv.core.Mat;
+
+import edu.wpi.first.cameraserver.CameraServerSharedStore;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.vision.VisionPipeline;
+
+/**
+ * A vision runner that captures, processes and publishes on three separate threads, so camera
+ * waits, pipeline work and NetworkTables/stream output overlap instead of adding up.
+ *
+ * <p>Frames move through a fixed ring of slots. Each slot owns its image buffer and its own
+ * pipeline instance, so the listener can read one frame's outputs while the next frame is being
+ * processed. Nothing is allocated per frame. When the ring is full the {@link DropPolicy}
+ * decides which frame is thrown away.</p>
+ *
+ * <p>Slots come back free in no fixed order, so each pipeline instance sees an irregular share
+ * of the frames. Pipelines run here must not carry state from one frame to the next.</p>
+ *
+ * <p>After each failed grab the capture thread backs off, doubling from 10 ms up to 1 s while
+ * they keep coming, so an unplugged camera doesn't keep a core busy.</p>
+ *
+ * @param <P> the type of the pipeline
+ */
+public class PipelinedVisionRunner<P extends VisionPipeline> {
+  /**
+   * What to do with a new frame when every slot is in use.
+   */
+  public enum DropPolicy {
+    /** Reuse the oldest frame still waiting to be processed, so the newest frame is kept. */
+    DROP_OLDEST,
+    /** Throw the new frame away, so frames already queued are processed in order. */
+    DROP_NEWEST;
+
+    /**
+     * Parses "oldest" or "newest", defaulting to {@link #DROP_OLDEST}.
+     */
+    public static DropPolicy get(String name) {
+      return "newest".equalsIgnoreCase(name) ? DROP_NEWEST : DROP_OLDEST;
+    }
+  }
+
+  private static final long MIN_BACKOFF_MS = 10;
+  private static final long MAX_BACKOFF_MS = 1000;
+
+  private static final class Slot<P> {
+    final Mat image = new Mat();
+    final P pipeline;
+    long frameTime;
+
+    Slot(P pipeline) {
+      this.pipeline = pipeline;
+    }
+  }
+
+  private final FrameSource frameSource;
+  private final BetterVisionRunner.Listener<? super P> listener;
+  private final DropPolicy dropPolicy;
+  private final BlockingQueue<Slot<P>> free, captured, processed;
+  private final Mat discard = new Mat();
+  private final FrameStats stats;
+  private final Thread[] threads;
+  private volatile boolean enabled = true;
+
+  /**
+   * Creates a pipelined runner.
+   *
+   * @param frameSource     the source to supply images
+   * @param pipelineFactory creates one pipeline for each slot in the ring
+   * @param listener        called on the publishing thread after each frame is processed
+   * @param depth           number of slots in the ring, at least 3 for all stages to overlap
+   * @param dropPolicy      which frame to drop when the ring is full
+   * @param statsTable      the table to publish frame rate, latency and drops in
+   */
+  public PipelinedVisionRunner(FrameSource frameSource, Supplier<P> pipelineFactory,
+      BetterVisionRunner.Listener<? super P> listener, int depth, DropPolicy dropPolicy,
+      NetworkTable statsTable) {
+    this.frameSource = frameSource;
+    this.listener = listener;
+    this.dropPolicy = dropPolicy;
+    free = new ArrayBlockingQueue<>(depth);
+    captured = new ArrayBlockingQueue<>(depth);
+    processed = new ArrayBlockingQueue<>(depth);
+    for (int i = 0; i < depth; i++) {
+      free.add(new Slot<>(pipelineFactory.get()));
+    }
+    stats = new FrameStats(statsTable, 30);
+    threads = new Thread[] {
+      new Thread(this::captureLoop, "Vision Capture"),
+      new Thread(this::processLoop, "Vision Process"),
+      new Thread(this::publishLoop, "Vision Publish")
+    };
+  }
+
+  /**
+   * Starts the capture, processing and publishing threads.
+   */
+  public void start() {
+    for (Thread thread : threads) {
+      thread.start();
+    }
+  }
+
+  /**
+   * Stops all three threads.
+   */
+  public void stop() {
+    enabled = false;
+    for (Thread thread : threads) {
+      thread.interrupt();
+    }
+  }
+
+  public FrameStats getStats() {
+    return stats;
+  }
+
+  private void captureLoop() {
+    long backoff = 0;
+    try {
+      while (enabled) {
+        Slot<P> slot = free.poll();
+        if (slot == null) {
+          if (dropPolicy == DropPolicy.DROP_NEWEST) {
+            // keep the camera drained so the next frame we keep is a fresh one
+            if (frameSource.grabFrame(discard) != 0) {
+              stats.recordDrop();
+              backoff = 0;
+            } else {
+              backoff = backOff(backoff);
+            }
+            continue;
+          }
+          slot = captured.poll();
+          if (slot != null) {
+            stats.recordDrop();
+          } else {
+            // every slot is being processed or published; the next free one gets a new frame
+            slot = free.take();
+          }
+        }
+        long frameTime = frameSource.grabFrame(slot.image);
+        if (frameTime == 0) {
+          // There was an error, report it
+          CameraServerSharedStore.getCameraServerShared().reportDriverStationError(frameSource.getError());
+          free.put(slot);
+          backoff = backOff(backoff);
+          continue;
+        }
+        backoff = 0;
+        slot.frameTime = frameTime;
+        captured.put(slot);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Sleeps after a failed grab, for twice as long as last time within the limits.
+   *
+   * @return the time slept, in milliseconds
+   */
+  private static long backOff(long backoff) throws InterruptedException {
+    backoff = Math.min(MAX_BACKOFF_MS, Math.max(MIN_BACKOFF_MS, 2 * backoff));
+    Thread.sleep(backoff);
+    return backoff;
+  }
+
+  private void processLoop() {
+    try {
+      while (enabled) {
+        Slot<P> slot = captured.take();
+        if (slot.pipeline instanceof TimestampedPipeline) {
+          ((TimestampedPipeline) slot.pipeline).setFrameTime(slot.frameTime);
+        }
+        slot.pipeline.process(slot.image);
+        processed.put(slot);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void publishLoop() {
+    try {
+      while (enabled) {
+        Slot<P> slot = processed.take();
+        listener.copyPipelineOutputs(slot.pipeline);
+        stats.recordFrame(slot.frameTime);
+        free.put(slot);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
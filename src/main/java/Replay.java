@@ -0,0 +1,55 @@
+import java.io.File;
+
+import edu.wpi.first.networktables.NetworkTablesJNI;
+
+/**
+ * Plays recorded frames through {@link BetterVisionRunner} and {@link GripPipeline} without
+ * cameras, printing the offset for every frame followed by a throughput summary. Comparing the
+ * per-frame output before and after a change shows whether {@code midOffset} moved.
+ *
+ * <pre>
+ *   java -cp java-multiCameraServer-all.jar Replay &lt;image dir or video&gt; [--realtime]
+ * </pre>
+ */
+public final class Replay {
+  private Replay() {
+  }
+
+  /**
+   * Main.
+   */
+  public static void main(String... args) {
+    if (args.length < 1) {
+      System.err.println("usage: Replay <image dir or video> [--realtime]");
+      return;
+    }
+    boolean realTime = args.length > 1 && "--realtime".equals(args[1]);
+    ReplayFrameSource source = new ReplayFrameSource(new File(args[0]), realTime);
+    // the target pairing only runs in vision mode
+    PipelineTuning.set(PipelineParameters.Tunable.VISION_MODE, true);
+
+    long[] frames = new long[1];
+    long[] totalLatency = new long[1];
+    long[] maxLatency = new long[1];
+    System.out.println("frame,original time,mid offset,center offset,latency ms");
+    BetterVisionRunner<GripPipeline> runner = new BetterVisionRunner<GripPipeline>(source, new GripPipeline(), pipeline -> {
+      long latency = System.nanoTime() - source.getGrabNanos();
+      totalLatency[0] += latency;
+      maxLatency[0] = Math.max(maxLatency[0], latency);
+      System.out.println(frames[0] + "," + source.getOriginalTime() + "," + pipeline.midOffset + ","
+          + pipeline.getCenterOffset(NetworkTablesJNI.now()) + "," + latency / 1e6);
+      frames[0]++;
+    });
+
+    long start = System.nanoTime();
+    while (!source.isFinished()) {
+      runner.runOnce();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    if (frames[0] > 0) {
+      System.err.printf("%d frames in %.2f s: %.1f fps, mean latency %.2f ms, max latency %.2f ms%n",
+          frames[0], seconds, frames[0] / seconds, totalLatency[0] / 1e6 / frames[0], maxLatency[0] / 1e6);
+    }
+  }
+}
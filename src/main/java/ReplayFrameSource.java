@@ -0,0 +1,205 @@
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import edu.wpi.first.networktables.NetworkTablesJNI;
+
+/**
+ * Frame source that plays back recorded frames from an image directory or a video file.
+ *
+ * <p>Images in a directory are played in file name order. If every file name (without its
+ * extension) is a number it is taken as the original capture time in microseconds, otherwise
+ * frames are assumed to be {@link #DEFAULT_FRAME_INTERVAL} apart. Video files use the
+ * container's timestamps.</p>
+ *
+ * <p>In real-time mode frames are released on the original schedule; otherwise each call
+ * returns the next frame immediately. The returned frame time is on the same clock as a live
+ * camera ({@link NetworkTablesJNI#now()}), and the recorded timestamp is available from
+ * {@link #getOriginalTime()}.</p>
+ */
+public class ReplayFrameSource implements FrameSource {
+  /** Spacing of frames without timestamps, in microseconds (30 fps). */
+  public static final long DEFAULT_FRAME_INTERVAL = 33333;
+
+  private static final String[] IMAGE_EXTENSIONS = {".png", ".jpg", ".jpeg", ".bmp"};
+
+  private final boolean realTime;
+  private final File[] images;
+  private final long[] imageTimes;
+  private final VideoCapture video;
+  private int index;
+  private long firstTime = -1;
+  private long startTime;
+  private long originalTime;
+  private long grabNanos;
+  private boolean finished;
+  private String error = "";
+
+  /**
+   * Creates a replay source.
+   *
+   * @param path     an image directory or a video file
+   * @param realTime true to pace frames at their recorded rate, false to run as fast as possible
+   */
+  public ReplayFrameSource(File path, boolean realTime) {
+    this.realTime = realTime;
+    if (path.isDirectory()) {
+      images = listImages(path);
+      imageTimes = readImageTimes(images);
+      video = null;
+    } else {
+      images = null;
+      imageTimes = null;
+      video = new VideoCapture(path.getPath());
+      if (!video.isOpened()) {
+        throw new IllegalArgumentException("could not open video '" + path + "'");
+      }
+    }
+  }
+
+  @Override
+  public long grabFrame(Mat image) {
+    if (!readNext(image)) {
+      finished = true;
+      return 0;
+    }
+    if (firstTime < 0) {
+      firstTime = originalTime;
+      startTime = NetworkTablesJNI.now();
+    }
+    long frameTime = startTime + (originalTime - firstTime);
+    if (realTime) {
+      long wait = frameTime - NetworkTablesJNI.now();
+      if (wait > 0) {
+        try {
+          Thread.sleep(wait / 1000, (int) (wait % 1000) * 1000);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          error = "replay interrupted";
+          return 0;
+        }
+      }
+    } else {
+      frameTime = NetworkTablesJNI.now();
+    }
+    grabNanos = System.nanoTime();
+    // a frame time of 0 means an error to the runner
+    return frameTime == 0 ? 1 : frameTime;
+  }
+
+  private boolean readNext(Mat image) {
+    if (video != null) {
+      if (!video.read(image) || image.empty()) {
+        error = "end of replay";
+        return false;
+      }
+      originalTime = (long) (video.get(Videoio.CAP_PROP_POS_MSEC) * 1000);
+      return true;
+    }
+    while (index < images.length) {
+      File file = images[index];
+      originalTime = imageTimes[index];
+      index++;
+      Mat decoded = Imgcodecs.imread(file.getPath());
+      if (!decoded.empty()) {
+        decoded.copyTo(image);
+        decoded.release();
+        return true;
+      }
+      decoded.release();
+      System.err.println("replay: could not read '" + file + "', skipping");
+    }
+    error = "end of replay";
+    return false;
+  }
+
+  @Override
+  public String getError() {
+    return error;
+  }
+
+  /**
+   * Gets the recorded timestamp of the last frame, in microseconds.
+   */
+  public long getOriginalTime() {
+    return originalTime;
+  }
+
+  /**
+   * Gets the {@link System#nanoTime()} at which the last frame was handed to the runner.
+   */
+  public long getGrabNanos() {
+    return grabNanos;
+  }
+
+  /**
+   * Returns true once every recorded frame has been played.
+   */
+  public boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * Starts playback again from the first frame.
+   */
+  public void rewind() {
+    if (video != null) {
+      video.set(Videoio.CAP_PROP_POS_FRAMES, 0);
+    }
+    index = 0;
+    firstTime = -1;
+    finished = false;
+    error = "";
+  }
+
+  private static File[] listImages(File dir) {
+    File[] files = dir.listFiles((d, name) -> {
+      String lower = name.toLowerCase();
+      for (String ext : IMAGE_EXTENSIONS) {
+        if (lower.endsWith(ext)) {
+          return true;
+        }
+      }
+      return false;
+    });
+    if (files == null || files.length == 0) {
+      throw new IllegalArgumentException("no images in '" + dir + "'");
+    }
+    Arrays.sort(files);
+    return files;
+  }
+
+  private static long[] readImageTimes(File[] files) {
+    long[] times = new long[files.length];
+    for (int i = 0; i < files.length; i++) {
+      String name = files[i].getName();
+      try {
+        times[i] = Long.parseLong(name.substring(0, name.lastIndexOf('.')));
+      } catch (NumberFormatException ex) {
+        for (int j = 0; j < times.length; j++) {
+          times[j] = j * DEFAULT_FRAME_INTERVAL;
+        }
+        return times;
+      }
+    }
+    // numbered frames may not be zero padded, so order them by time rather than by name
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingLong(i -> times[i]));
+    File[] sortedFiles = new File[files.length];
+    long[] sortedTimes = new long[files.length];
+    for (int i = 0; i < order.length; i++) {
+      sortedFiles[i] = files[order[i]];
+      sortedTimes[i] = times[order[i]];
+    }
+    System.arraycopy(sortedFiles, 0, files, 0, files.length);
+    return sortedTimes;
+  }
+}
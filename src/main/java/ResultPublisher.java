@@ -0,0 +1,86 @@
+import java.lang.management.ManagementFactory;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+
+/**
+ * Publishes each frame's result as one number array, "Result", so the robot gets every value
+ * from the same frame together; decode it with {@link VisionResult#decode}. The JVM uptime at the
+ * first publish goes in "First Result Ms".
+ *
+ * <p>Callers flush NetworkTables once they have set all of a frame's entries, instead of waiting
+ * for the next periodic update. ntcore ignores a flush within 10 ms of the last one, so a flush
+ * per entry would leave the later entries of the frame waiting.</p>
+ */
+public class ResultPublisher {
+  private final NetworkTableEntry resultEntry, firstResultEntry;
+  private double[] packed = new double[VisionResult.TARGETS];
+  private long frameId;
+
+  /**
+   * Creates a publisher for the "Result" entry of {@code table}.
+   */
+  public ResultPublisher(NetworkTable table) {
+    resultEntry = table.getEntry("Result");
+    firstResultEntry = table.getEntry("First Result Ms");
+  }
+
+  /**
+   * Publishes the result of the frame the pipeline last processed, without flushing. Safe to call
+   * from several runners' threads at once.
+   */
+  public synchronized void publish(GripPipeline pipeline) {
+    int targets = pipeline.getMatcher().getTargetCount();
+    if (packed.length != VisionResult.TARGETS + 2 * targets) {
+      packed = new double[VisionResult.TARGETS + 2 * targets];
+    }
+    pack(pipeline, frameId++, NetworkTablesJNI.now(), packed);
+    set();
+  }
+
+  /**
+   * Publishes a result with no target, offset 0, for a frame no GripPipeline ran on, so the robot
+   * doesn't keep steering on the last target found before the pipeline was switched.
+   *
+   * @param captureTime the frame's capture time, or 0 if it isn't known
+   */
+  public synchronized void publishNoTarget(long captureTime) {
+    if (packed.length != VisionResult.TARGETS) {
+      packed = new double[VisionResult.TARGETS];
+    }
+    long now = NetworkTablesJNI.now();
+    VisionResult.encode(packed, 0, frameId++, captureTime, captureTime != 0 ? (now - captureTime) / 1000.0 : 0,
+        0, 0, false, 0);
+    set();
+  }
+
+  private void set() {
+    resultEntry.setDoubleArray(packed);
+    if (frameId == 1) {
+      // how long a reboot takes to get back to publishing offsets
+      firstResultEntry.setDouble(ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+  }
+
+  /**
+   * Packs the result of the frame the pipeline last processed, with as many of its targets as
+   * fit in {@code packed}.
+   *
+   * @param now the time the result is packed, which the tracked offset is predicted to
+   * @return the number of values used
+   */
+  static int pack(GripPipeline pipeline, long frameId, long now, double[] packed) {
+    TargetMatcher matcher = pipeline.getMatcher();
+    int targets = Math.min(matcher.getTargetCount(), (packed.length - VisionResult.TARGETS) / 2);
+    long captureTime = pipeline.getFrameTime();
+    VisionResult.encode(packed, targets, frameId, captureTime, (now - captureTime) / 1000.0,
+        pipeline.getCenterOffset(now), pipeline.midOffset, pipeline.hasTarget(),
+        pipeline.filterContoursOutput().size());
+    for (int i = 0; i < targets; i++) {
+      packed[VisionResult.TARGETS + 2 * i] = matcher.getOffset(i);
+      packed[VisionResult.TARGETS + 2 * i + 1] = matcher.getScore(i);
+    }
+    return VisionResult.TARGETS + 2 * targets;
+  }
+}
@@ -0,0 +1,85 @@
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loops recorded frames through {@link GripPipeline} in vision mode for a long run and fails
+ * if native memory keeps growing. The memory outside the JVM is sampled every few seconds into a
+ * {@link LeakDetector}, and the run exits with status 1 if its growth over the run, after
+ * warm-up, is above the limit. No garbage collection is forced, so Mats that are only freed by
+ * their finalizers show up as growth just as they would on the robot.
+ *
+ * <pre>
+ *   java -cp java-multiCameraServer-all.jar Soak &lt;image dir or video&gt; [minutes] [max growth KB/min]
+ * </pre>
+ */
+public final class Soak {
+  private static final long SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(5);
+  private static final long MAX_WARMUP_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+  private Soak() {
+  }
+
+  /**
+   * Main.
+   */
+  public static void main(String... args) {
+    if (args.length < 1) {
+      System.err.println("usage: Soak <image dir or video> [minutes] [max growth KB/min]");
+      return;
+    }
+    double minutes = args.length > 1 ? Double.parseDouble(args[1]) : 30;
+    double maxGrowth = (args.length > 2 ? Double.parseDouble(args[2]) : 256) * 1024;
+    if (NativeMemory.residentBytes() < 0) {
+      System.err.println("Soak needs /proc/self/status to measure native memory");
+      System.exit(2);
+    }
+
+    // the target pairing only runs in vision mode
+    PipelineTuning.set(PipelineParameters.Tunable.VISION_MODE, true);
+    ReplayFrameSource source = new ReplayFrameSource(new File(args[0]), false);
+    GripPipeline pipeline = new GripPipeline();
+    long[] frames = new long[1];
+    BetterVisionRunner<GripPipeline> runner = new BetterVisionRunner<GripPipeline>(source, pipeline,
+        p -> frames[0]++);
+
+    long runNanos = (long) (minutes * 60e9);
+    long warmupNanos = Math.min(MAX_WARMUP_NANOS, runNanos / 10);
+    LeakDetector detector = new LeakDetector((int) (runNanos / SAMPLE_NANOS) + 1, warmupNanos);
+    long start = System.nanoTime();
+    long nextSample = start;
+    long firstBytes = Long.MIN_VALUE;
+    for (long now = start; now - start < runNanos; now = System.nanoTime()) {
+      if (source.isFinished()) {
+        source.rewind();
+      }
+      runner.runOnce();
+      if (now - nextSample >= 0) {
+        nextSample += SAMPLE_NANOS;
+        long bytes = NativeMemory.outsideJvmBytes();
+        detector.sample(now, bytes);
+        if (firstBytes == Long.MIN_VALUE && now - start >= warmupNanos) {
+          firstBytes = bytes;
+        }
+        System.err.printf("%.1f min: %d frames, outside JVM %.1f MB, growth %.1f KB/min,"
+            + " pipeline %.1f MB, pool %.1f MB%n",
+            (now - start) / 60e9, frames[0], bytes / 1048576.0, detector.getGrowth() / 1024,
+            pipeline.nativeBytes() / 1048576.0,
+            (MatPool.getInstance().getOutstandingBytes() + MatPool.getInstance().getPooledBytes()) / 1048576.0);
+      }
+    }
+
+    if (!detector.isReady()) {
+      System.err.println("run too short to measure growth after warm-up");
+      System.exit(2);
+    }
+    System.out.printf("%d frames, outside JVM %+.1f MB since warm-up, growth %.1f KB/min (limit %.1f)%n",
+        frames[0], (detector.getLast() - firstBytes) / 1048576.0, detector.getGrowth() / 1024,
+        maxGrowth / 1024);
+    if (detector.isLeaking(maxGrowth)) {
+      System.out.println("FAIL: native memory is growing");
+      System.exit(1);
+    }
+    System.out.println("PASS");
+    System.exit(0);
+  }
+}
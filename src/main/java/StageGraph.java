@@ -0,0 +1,203 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.core.Mat;
+
+/**
+ * Runs several pipelines over one frame as a single graph of named stages. Pipelines declare
+ * their stages with {@link #add}; a stage whose name is already declared is shared rather than
+ * added again, so for example one BGR to gray conversion feeds every pipeline that starts with
+ * it. Each frame, a stage runs as soon as its inputs are done, and stages that become ready
+ * together run in parallel, with the calling thread taking one of them and the rest going to a
+ * pool of daemon threads shared by every graph, whose idle threads exit after a minute.
+ *
+ * <p>Stages must only write their own output Mat. Every output is reused from frame to frame.</p>
+ */
+public class StageGraph {
+  /** The name of the frame passed to {@link #run}, for use as an input. */
+  public static final String FRAME = "frame";
+
+  /**
+   * One operation in the graph.
+   */
+  @FunctionalInterface
+  public interface Operation {
+    /**
+     * Runs the operation on one frame.
+     *
+     * @param inputs the outputs of the stage's inputs, in the order they were declared
+     * @param output this stage's output, to write into
+     */
+    void run(Mat[] inputs, Mat output);
+  }
+
+  private static final class Stage {
+    final String name;
+    final Operation operation;
+    final String[] inputNames;
+    final Stage[] inputStages;
+    final Mat[] inputs;
+    final Mat output = new Mat();
+    final List<Stage> dependents = new ArrayList<>();
+    final AtomicInteger pending = new AtomicInteger();
+    /** The number of distinct stages this one waits for. */
+    final int waitCount;
+
+    Stage(String name, Operation operation, String[] inputNames, Stage[] inputStages) {
+      this.name = name;
+      this.operation = operation;
+      this.inputNames = inputNames;
+      this.inputStages = inputStages;
+      inputs = new Mat[inputNames.length];
+      waitCount = (int) Arrays.stream(inputStages).filter(s -> s != null).distinct().count();
+    }
+  }
+
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "Stage Graph");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Map<String, Stage> stages = new LinkedHashMap<>();
+  private final List<Stage> roots = new ArrayList<>();
+  private final AtomicInteger remaining = new AtomicInteger();
+  private volatile RuntimeException failure;
+  private volatile boolean cancelled;
+
+  /**
+   * Declares a stage, or shares the existing stage of the same name.
+   *
+   * @param name      the stage's name, which should say what it computes from what, such as
+   *                  "gray" or "gray/median 5"
+   * @param operation the operation
+   * @param inputs    the names of the stages it reads, or {@link #FRAME}
+   * @return the name, for chaining declarations
+   * @throws IllegalArgumentException if an input isn't declared yet, or the name is already
+   *                                  declared with different inputs
+   */
+  public synchronized String add(String name, Operation operation, String... inputs) {
+    Stage existing = stages.get(name);
+    if (existing != null) {
+      if (!Arrays.equals(existing.inputNames, inputs)) {
+        throw new IllegalArgumentException("stage '" + name + "' is already declared with inputs "
+            + Arrays.toString(existing.inputNames));
+      }
+      return name;
+    }
+    Stage[] inputStages = new Stage[inputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      if (!FRAME.equals(inputs[i])) {
+        inputStages[i] = stages.get(inputs[i]);
+        if (inputStages[i] == null) {
+          throw new IllegalArgumentException("stage '" + name + "' reads undeclared stage '" + inputs[i] + "'");
+        }
+      }
+    }
+    Stage stage = new Stage(name, operation, inputs, inputStages);
+    for (int i = 0; i < inputs.length; i++) {
+      if (inputStages[i] != null) {
+        if (!inputStages[i].dependents.contains(stage)) {
+          inputStages[i].dependents.add(stage);
+        }
+        stage.inputs[i] = inputStages[i].output;
+      }
+    }
+    if (stage.waitCount == 0) {
+      roots.add(stage);
+    }
+    stages.put(name, stage);
+    return name;
+  }
+
+  /**
+   * Gets a stage's output from the last frame.
+   */
+  public Mat output(String name) {
+    return stages.get(name).output;
+  }
+
+  /**
+   * Runs every stage once on {@code frame}, returning when they have all finished. If the
+   * calling thread is interrupted, the stages still to run are skipped, and it returns with its
+   * interrupt status set once the running ones are done, so no stage is still writing its output.
+   *
+   * @throws RuntimeException the first exception thrown by a stage, after which the stages
+   *                          still to run are skipped
+   */
+  public void run(Mat frame) {
+    failure = null;
+    cancelled = false;
+    remaining.set(stages.size());
+    for (Stage stage : stages.values()) {
+      for (int i = 0; i < stage.inputs.length; i++) {
+        if (stage.inputStages[i] == null) {
+          stage.inputs[i] = frame;
+        }
+      }
+      stage.pending.set(stage.waitCount);
+    }
+    for (int i = 1; i < roots.size(); i++) {
+      Stage root = roots.get(i);
+      EXECUTOR.execute(() -> execute(root));
+    }
+    if (!roots.isEmpty()) {
+      execute(roots.get(0));
+    }
+    boolean interrupted = false;
+    synchronized (remaining) {
+      while (remaining.get() > 0) {
+        try {
+          remaining.wait();
+        } catch (InterruptedException ex) {
+          interrupted = true;
+          cancelled = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void execute(Stage stage) {
+    Stage next = stage;
+    while (next != null) {
+      Stage current = next;
+      next = null;
+      if (failure == null && !cancelled) {
+        try {
+          current.operation.run(current.inputs, current.output);
+        } catch (RuntimeException ex) {
+          failure = ex;
+        }
+      }
+      // carry on with the first dependent that is ready on this thread, hand off the rest
+      for (Stage dependent : current.dependents) {
+        if (dependent.pending.decrementAndGet() == 0) {
+          if (next == null) {
+            next = dependent;
+          } else {
+            Stage ready = dependent;
+            EXECUTOR.execute(() -> execute(ready));
+          }
+        }
+      }
+      if (remaining.decrementAndGet() == 0) {
+        synchronized (remaining) {
+          remaining.notifyAll();
+        }
+      }
+    }
+  }
+}
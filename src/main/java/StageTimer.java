@@ -0,0 +1,82 @@
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+
+/**
+ * Times the stages of a pipeline with {@link System#nanoTime()} and publishes a
+ * {@link LatencyHistogram} summary for each stage every few frames.
+ *
+ * <p>Each stage is published as a number array entry named after the stage holding p50, p95,
+ * p99 and max in milliseconds. A "total" entry covers the whole frame.</p>
+ */
+public class StageTimer {
+  private static final int WINDOW = 256;
+
+  private final String[] stages;
+  private final LatencyHistogram[] histograms;
+  private final LatencyHistogram total = new LatencyHistogram(WINDOW);
+  private final NetworkTableEntry[] entries;
+  private final NetworkTableEntry totalEntry;
+  private final int publishInterval;
+  private final double[] summary = new double[4];
+  private long frameStart;
+  private long stageStart;
+  private int frames;
+
+  /**
+   * Creates a timer.
+   *
+   * @param table           the table to publish the stage entries in
+   * @param publishInterval number of frames between publishes
+   * @param stages          the stage names, in the order they run
+   */
+  public StageTimer(NetworkTable table, int publishInterval, String... stages) {
+    this.stages = stages;
+    this.publishInterval = publishInterval;
+    histograms = new LatencyHistogram[stages.length];
+    entries = new NetworkTableEntry[stages.length];
+    for (int i = 0; i < stages.length; i++) {
+      histograms[i] = new LatencyHistogram(WINDOW);
+      entries[i] = table.getEntry(stages[i]);
+    }
+    totalEntry = table.getEntry("total");
+  }
+
+  /**
+   * Marks the start of a frame.
+   */
+  public void startFrame() {
+    frameStart = System.nanoTime();
+    stageStart = frameStart;
+  }
+
+  /**
+   * Records the time since the previous mark (or the start of the frame) against a stage.
+   *
+   * @param stage index of the stage in the constructor's list
+   */
+  public void endStage(int stage) {
+    long now = System.nanoTime();
+    histograms[stage].record(now - stageStart);
+    stageStart = now;
+  }
+
+  /**
+   * Marks the end of a frame and publishes the summaries if it is time to.
+   */
+  public void endFrame() {
+    total.record(System.nanoTime() - frameStart);
+    if (++frames % publishInterval == 0) {
+      for (int i = 0; i < stages.length; i++) {
+        entries[i].setDoubleArray(histograms[i].summarize(summary));
+      }
+      totalEntry.setDoubleArray(total.summarize(summary));
+    }
+  }
+
+  /**
+   * Gets the histogram for a stage.
+   */
+  public LatencyHistogram getHistogram(int stage) {
+    return histograms[stage];
+  }
+}
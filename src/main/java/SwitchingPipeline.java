@@ -0,0 +1,117 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.opencv.core.Mat;
+
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.vision.VisionPipeline;
+
+/**
+ * Runs whichever of a set of already-built pipelines is selected, so the detection mode can be
+ * changed between frames without a restart. The selection is read once at the start of each
+ * frame, and every instance stays alive (and JIT-compiled) while it isn't selected.
+ */
+public class SwitchingPipeline implements TimestampedPipeline, OverlaySource {
+  private final VisionPipeline[] pipelines;
+  private final PipelineRegistry.Selection selection;
+  private VisionPipeline active;
+  private boolean selected;
+  private long frameTime;
+  //shared by every instance for one camera, and emptied by whichever processes the first frame
+  private final AtomicReference<NetworkTableEntry> firstFrame;
+
+  /**
+   * Creates a pipeline switching between {@code pipelines}, indexed by {@code selection}.
+   */
+  public SwitchingPipeline(VisionPipeline[] pipelines, PipelineRegistry.Selection selection) {
+    this(pipelines, selection, (NetworkTableEntry) null);
+  }
+
+  /**
+   * Creates a pipeline switching between {@code pipelines}, indexed by {@code selection}, that
+   * reports how long its first frame took.
+   *
+   * @param firstFrameEntry the entry to publish the first frame's time in, in milliseconds, or null
+   */
+  public SwitchingPipeline(VisionPipeline[] pipelines, PipelineRegistry.Selection selection,
+      NetworkTableEntry firstFrameEntry) {
+    this(pipelines, selection, new AtomicReference<>(firstFrameEntry));
+  }
+
+  /**
+   * Creates one of several pipelines taking turns at a camera's frames, which report how long
+   * the camera's first frame took once between them.
+   *
+   * @param firstFrame the entry to publish the first frame's time in, shared by the instances
+   */
+  SwitchingPipeline(VisionPipeline[] pipelines, PipelineRegistry.Selection selection,
+      AtomicReference<NetworkTableEntry> firstFrame) {
+    this.pipelines = pipelines;
+    this.selection = selection;
+    this.firstFrame = firstFrame;
+    active = pipelines[selection.get()];
+  }
+
+  @Override
+  public void setFrameTime(long frameTime) {
+    this.frameTime = frameTime;
+    active = pipelines[selection.get()];
+    selected = true;
+    if (active instanceof TimestampedPipeline) {
+      ((TimestampedPipeline) active).setFrameTime(frameTime);
+    }
+  }
+
+  @Override
+  public void process(Mat image) {
+    // keep the pipeline setFrameTime picked, so the time goes with the frame
+    if (!selected) {
+      active = pipelines[selection.get()];
+      frameTime = 0;
+    }
+    selected = false;
+    NetworkTableEntry firstFrameEntry = firstFrame.get();
+    if (firstFrameEntry == null) {
+      active.process(image);
+      return;
+    }
+    // whether the warm-up did its job shows in how close this is to the usual frame time
+    long start = System.nanoTime();
+    active.process(image);
+    if (firstFrame.compareAndSet(firstFrameEntry, null)) {
+      firstFrameEntry.setDouble((System.nanoTime() - start) / 1e6);
+    }
+  }
+
+  /**
+   * Gets the pipeline that processed the last frame.
+   */
+  public VisionPipeline getActive() {
+    return active;
+  }
+
+  /**
+   * Gets the capture time of the last frame, in microseconds on the NetworkTablesJNI.now() clock,
+   * or 0 if the runner didn't give one.
+   */
+  public long getFrameTime() {
+    return frameTime;
+  }
+
+  /**
+   * Gets the GripPipeline that processed the last frame, on its own or as part of a
+   * {@link CombinedPipeline}, or null if neither ran.
+   */
+  public GripPipeline getGrip() {
+    if (active instanceof CombinedPipeline) {
+      return ((CombinedPipeline) active).getGrip();
+    }
+    return active instanceof GripPipeline ? (GripPipeline) active : null;
+  }
+
+  @Override
+  public void snapshotOverlay(OverlayRenderer.Snapshot snapshot) {
+    if (active instanceof OverlaySource) {
+      ((OverlaySource) active).snapshotOverlay(snapshot);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Generated frames of vision-target strips, for exercising the pipelines without a camera.
+ */
+public final class SyntheticFrames {
+  public static final int WIDTH = 416;
+  public static final int HEIGHT = 240;
+
+  private SyntheticFrames() {
+  }
+
+  /**
+   * Draws a 416x240 frame crowded with {@code strips} target strips, as "\ /" pairs in a grid,
+   * in the raw upside-down orientation of the corpus frames.
+   *
+   * @param strips the number of strips, drawn in pairs
+   * @param shift  pixels to move every pair to the right by, up to 8
+   */
+  public static Mat targets(int strips, int shift) {
+    return targets(strips, shift, true);
+  }
+
+  /**
+   * Draws a 416x240 frame crowded with {@code strips} target strips as seen by a camera mounted
+   * either way up. An upside-down camera sees each "/ \" pair turned around into "\ /", so only
+   * a pipeline flipping its frames finds pairs in it.
+   *
+   * @param strips     the number of strips, drawn in pairs
+   * @param shift      pixels to move every pair by, up to 8
+   * @param upsideDown whether to draw the frame as an upside-down camera sees it
+   */
+  public static Mat targets(int strips, int shift, boolean upsideDown) {
+    final int columns = 8;
+    final int pairs = strips / 2;
+    final int rows = Math.max(1, (pairs + columns - 1) / columns);
+    final int cellWidth = WIDTH / columns, cellHeight = HEIGHT / rows;
+    final int stripHeight = cellHeight * 3 / 5, stripWidth = 4, lean = 4;
+    Mat frame = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3, new Scalar(0, 0, 0));
+    List<MatOfPoint> polygons = new ArrayList<>();
+    for (int i = 0; i < pairs; i++) {
+      int x = (i % columns) * cellWidth + shift;
+      int y = (i / columns) * cellHeight + (cellHeight - stripHeight) / 2;
+      int gap = cellWidth - 16 - stripWidth - lean;
+      polygons.add(new MatOfPoint(new Point(x, y), new Point(x + stripWidth, y),
+          new Point(x + stripWidth + lean, y + stripHeight), new Point(x + lean, y + stripHeight)));
+      polygons.add(new MatOfPoint(new Point(x + gap + lean, y), new Point(x + gap + lean + stripWidth, y),
+          new Point(x + gap + stripWidth, y + stripHeight), new Point(x + gap, y + stripHeight)));
+    }
+    // a cyan-leaning green that sits inside the default HSL bounds
+    Imgproc.fillPoly(frame, polygons, new Scalar(80, 255, 0));
+    NativeMemory.release(polygons);
+    if (!upsideDown) {
+      Core.flip(frame, frame, -1);
+    }
+    return frame;
+  }
+}
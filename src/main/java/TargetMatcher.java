@@ -0,0 +1,213 @@
+import java.util.Arrays;
+
+/**
+ * Finds "/ \" strip pairs among a frame's contours and ranks them. The strips are sorted by
+ * centroid x once, then each "/" strip is swept rightwards against the "\" strips within reach,
+ * so the work is O(n log n) plus a short window per strip rather than every pair. Each pair is
+ * scored from 0 to 1 on four equally weighted terms:
+ *
+ * <ul>
+ * <li>tilt: how closely the two strips lean by the same amount in opposite directions</li>
+ * <li>size: the ratio of the smaller area to the larger</li>
+ * <li>alignment: how close the centroids are in height, relative to the strips' height</li>
+ * <li>spacing: how close the centroid gap, in strip heights, is to the "Pair Spacing" tunable</li>
+ * </ul>
+ *
+ * <p>The best pairs that don't share a strip are kept, up to "Max Targets", and only while they
+ * score at least "Min Pair Score". All storage is reused between frames.</p>
+ */
+public class TargetMatcher {
+  /** Sweeps stop once the centroid gap is this many times the expected spacing. */
+  private static final double MAX_SPACING_FACTOR = 2;
+
+  private long[] sortKeys = new long[64];
+  private int[] candidateLeft = new int[64];
+  private int[] candidateRight = new int[64];
+  private double[] candidateScore = new double[64];
+  private int candidateCount;
+  private boolean[] used = new boolean[64];
+
+  private ContourFeatures[] left = new ContourFeatures[0];
+  private ContourFeatures[] right = new ContourFeatures[0];
+  private double[] midpoint = new double[0];
+  private double[] offset = new double[0];
+  private double[] score = new double[0];
+  private int targetCount;
+  //exact-length copies for publishing, one per target count, so publishing doesn't allocate
+  private double[][] offsetsByCount = new double[1][], scoresByCount = new double[1][];
+
+  /**
+   * Matches the strips of one frame.
+   *
+   * @param features   the strips' features
+   * @param count      how many of {@code features} to use
+   * @param frameWidth the width of the frame, for the offsets
+   * @param params     the snapshot to read the spacing, score and target limits from
+   * @return the number of targets found, best first
+   */
+  public int match(ContourFeatures[] features, int count, int frameWidth, PipelineParameters params) {
+    ensureCapacity(count, params.maxTargets);
+    // sort indices by centroid x, packed with the index so the sort doesn't allocate
+    for (int i = 0; i < count; i++) {
+      sortKeys[i] = (Math.round(features[i].centroidX * 16) << 32) | i;
+    }
+    Arrays.sort(sortKeys, 0, count);
+
+    candidateCount = 0;
+    final double expected = params.pairSpacing;
+    for (int a = 0; a < count; a++) {
+      final ContourFeatures l = features[(int) sortKeys[a]];
+      if (!l.tiltedClockwise) {
+        continue;
+      }
+      final double reach = MAX_SPACING_FACTOR * expected * l.height();
+      for (int b = a + 1; b < count; b++) {
+        final ContourFeatures r = features[(int) sortKeys[b]];
+        final double dx = r.centroidX - l.centroidX;
+        if (dx > reach) {
+          break;
+        }
+        if (r.tiltedClockwise) {
+          continue;
+        }
+        final double pairScore = score(l, r, dx, expected);
+        if (pairScore >= params.minPairScore) {
+          addCandidate((int) sortKeys[a], (int) sortKeys[b], pairScore);
+        }
+      }
+    }
+
+    // greedily take the best pairs that don't reuse a strip
+    Arrays.fill(used, 0, count, false);
+    targetCount = 0;
+    while (targetCount < params.maxTargets) {
+      int best = -1;
+      for (int c = 0; c < candidateCount; c++) {
+        if (!used[candidateLeft[c]] && !used[candidateRight[c]]
+            && (best < 0 || candidateScore[c] > candidateScore[best])) {
+          best = c;
+        }
+      }
+      if (best < 0) {
+        break;
+      }
+      used[candidateLeft[best]] = true;
+      used[candidateRight[best]] = true;
+      final ContourFeatures l = features[candidateLeft[best]];
+      final ContourFeatures r = features[candidateRight[best]];
+      left[targetCount] = l;
+      right[targetCount] = r;
+      midpoint[targetCount] = (r.minX + l.maxX) / 2.0;
+      // negative if center is to the left of midpoint
+      offset[targetCount] = 0.5 - midpoint[targetCount] / frameWidth;
+      score[targetCount] = candidateScore[best];
+      targetCount++;
+    }
+    return targetCount;
+  }
+
+  private static double score(ContourFeatures l, ContourFeatures r, double dx, double expected) {
+    final int leftHeight = l.height();
+    final int rightHeight = r.height();
+    final double meanHeight = (leftHeight + rightHeight) / 2.0;
+    // how far each strip leans towards the other, as a fraction of its height
+    final double leftLean = (l.leftmostY - l.rightmostY) / (double) leftHeight;
+    final double rightLean = (r.rightmostY - r.leftmostY) / (double) rightHeight;
+    final double tilt = leftLean + rightLean > 0
+        ? 1 - Math.abs(leftLean - rightLean) / (leftLean + rightLean) : 0;
+    final double largerArea = Math.max(l.area, r.area);
+    final double size = largerArea > 0 ? Math.min(l.area, r.area) / largerArea : 0;
+    final double alignment = Math.max(0, 1 - Math.abs(l.centroidY - r.centroidY) / meanHeight);
+    final double spacing = Math.max(0, 1 - Math.abs(dx / meanHeight - expected) / expected);
+    return (tilt + size + alignment + spacing) / 4;
+  }
+
+  private void addCandidate(int l, int r, double pairScore) {
+    if (candidateCount == candidateScore.length) {
+      candidateLeft = Arrays.copyOf(candidateLeft, 2 * candidateCount);
+      candidateRight = Arrays.copyOf(candidateRight, 2 * candidateCount);
+      candidateScore = Arrays.copyOf(candidateScore, 2 * candidateCount);
+    }
+    candidateLeft[candidateCount] = l;
+    candidateRight[candidateCount] = r;
+    candidateScore[candidateCount] = pairScore;
+    candidateCount++;
+  }
+
+  private void ensureCapacity(int count, int maxTargets) {
+    if (sortKeys.length < count) {
+      sortKeys = new long[2 * count];
+      used = new boolean[2 * count];
+    }
+    if (left.length < maxTargets) {
+      left = new ContourFeatures[maxTargets];
+      right = new ContourFeatures[maxTargets];
+      midpoint = new double[maxTargets];
+      offset = new double[maxTargets];
+      score = new double[maxTargets];
+    }
+    if (offsetsByCount.length <= maxTargets) {
+      offsetsByCount = new double[maxTargets + 1][];
+      scoresByCount = new double[maxTargets + 1][];
+    }
+  }
+
+  /**
+   * Forgets the targets of the last frame matched.
+   */
+  public void clear() {
+    targetCount = 0;
+  }
+
+  public int getTargetCount() {
+    return targetCount;
+  }
+
+  public ContourFeatures getLeft(int target) {
+    return left[target];
+  }
+
+  public ContourFeatures getRight(int target) {
+    return right[target];
+  }
+
+  /** Gets the x of the middle of the gap between the target's strips. */
+  public double getMidpoint(int target) {
+    return midpoint[target];
+  }
+
+  /** Gets the target's offset from the centre, as a fraction of the frame width. */
+  public double getOffset(int target) {
+    return offset[target];
+  }
+
+  public double getScore(int target) {
+    return score[target];
+  }
+
+  /**
+   * Gets the offsets of the targets found, in an array of their exact number that is reused by
+   * later frames with as many targets.
+   */
+  public double[] getOffsets() {
+    return exactCopy(offset, offsetsByCount);
+  }
+
+  /**
+   * Gets the scores of the targets found, in an array of their exact number that is reused by
+   * later frames with as many targets.
+   */
+  public double[] getScores() {
+    return exactCopy(score, scoresByCount);
+  }
+
+  private double[] exactCopy(double[] values, double[][] byCount) {
+    double[] copy = byCount[targetCount];
+    if (copy == null) {
+      copy = new double[targetCount];
+      byCount[targetCount] = copy;
+    }
+    System.arraycopy(values, 0, copy, 0, targetCount);
+    return copy;
+  }
+}
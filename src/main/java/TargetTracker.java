@@ -0,0 +1,142 @@
+import java.util.Arrays;
+
+/**
+ * Smooths target offsets over time with an alpha-beta filter per target. Each frame's targets
+ * are matched to the existing tracks by predicted offset, using the frame's capture time, so
+ * irregular frame spacing is handled properly. A track that goes unseen keeps coasting on its
+ * velocity for "Track Hold Ms" before it is dropped, which rides out a frame or two without a
+ * pair instead of snapping to 0.
+ *
+ * <p>The primary track is the one the best-scored target landed on, or while no target is seen,
+ * the last primary track if it is still held. {@link #predict} extrapolates it to any time on
+ * the capture clock, such as the moment it is published, to make up for the processing latency.</p>
+ */
+public class TargetTracker {
+  /** Tracks kept at once; the stalest is replaced when a new target needs one. */
+  private static final int MAX_TRACKS = 8;
+  /** The furthest a target may be from a track's prediction to update it, as a fraction of the frame width. */
+  private static final double GATE = 0.1;
+
+  private final double[] offset = new double[MAX_TRACKS];
+  private final double[] velocity = new double[MAX_TRACKS];
+  private final long[] lastSeen = new long[MAX_TRACKS];
+  private final boolean[] alive = new boolean[MAX_TRACKS];
+  private final boolean[] matched = new boolean[MAX_TRACKS];
+  private int primary = -1;
+  private long holdMicros;
+
+  /**
+   * Updates the tracks with one frame's targets.
+   *
+   * @param matcher   the matcher holding the frame's targets, best first
+   * @param frameTime the capture time of the frame in microseconds
+   * @param params    the snapshot to read the filter gains and hold time from
+   */
+  public void update(TargetMatcher matcher, long frameTime, PipelineParameters params) {
+    holdMicros = (long) (params.trackHoldMs * 1000);
+    Arrays.fill(matched, false);
+    final int targets = matcher.getTargetCount();
+    int newPrimary = -1;
+    for (int t = 0; t < targets; t++) {
+      final double z = matcher.getOffset(t);
+      int best = -1;
+      double bestError = GATE;
+      for (int i = 0; i < MAX_TRACKS; i++) {
+        if (alive[i] && !matched[i]) {
+          final double error = Math.abs(z - predictTrack(i, frameTime));
+          if (error <= bestError) {
+            best = i;
+            bestError = error;
+          }
+        }
+      }
+      if (best >= 0) {
+        final double dt = (frameTime - lastSeen[best]) / 1e6;
+        final double predicted = predictTrack(best, frameTime);
+        final double residual = z - predicted;
+        offset[best] = predicted + params.trackAlpha * residual;
+        if (dt > 0) {
+          velocity[best] += params.trackBeta * residual / dt;
+        }
+      } else {
+        best = stalest();
+        if (best < 0) {
+          // more targets this frame than tracks
+          continue;
+        }
+        if (best == primary) {
+          primary = -1;
+        }
+        alive[best] = true;
+        offset[best] = z;
+        velocity[best] = 0;
+      }
+      lastSeen[best] = frameTime;
+      matched[best] = true;
+      if (t == 0) {
+        newPrimary = best;
+      }
+    }
+    for (int i = 0; i < MAX_TRACKS; i++) {
+      if (alive[i] && frameTime - lastSeen[i] > holdMicros) {
+        alive[i] = false;
+      }
+    }
+    if (newPrimary >= 0) {
+      primary = newPrimary;
+    } else if (primary >= 0 && !alive[primary]) {
+      primary = -1;
+    }
+  }
+
+  /**
+   * Drops every track, for when frames stop being searched for targets.
+   */
+  public void reset() {
+    Arrays.fill(alive, false);
+    primary = -1;
+  }
+
+  /**
+   * Gets whether there is a primary track, seen within the hold time of the last update.
+   */
+  public boolean hasTarget() {
+    return primary >= 0;
+  }
+
+  /**
+   * Predicts the primary track's offset at a time on the capture clock.
+   *
+   * @param time the time in microseconds, usually {@code NetworkTablesJNI.now()}
+   * @return the predicted offset, or 0 with no target
+   */
+  public double predict(long time) {
+    return primary >= 0 ? predictTrack(primary, time) : 0;
+  }
+
+  /**
+   * Gets how long ago the primary track was last seen, in microseconds, or -1 with no target.
+   */
+  public long getAge(long time) {
+    return primary >= 0 ? time - lastSeen[primary] : -1;
+  }
+
+  private double predictTrack(int track, long time) {
+    // never extrapolate further than a track may be held
+    final long dt = Math.max(0, Math.min(time - lastSeen[track], holdMicros));
+    return offset[track] + velocity[track] * dt / 1e6;
+  }
+
+  private int stalest() {
+    int stalest = -1;
+    for (int i = 0; i < MAX_TRACKS; i++) {
+      if (!alive[i]) {
+        return i;
+      }
+      if (!matched[i] && (stalest < 0 || lastSeen[i] < lastSeen[stalest])) {
+        stalest = i;
+      }
+    }
+    return stalest;
+  }
+}
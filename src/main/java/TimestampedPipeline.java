@@ -0,0 +1,14 @@
+import edu.wpi.first.vision.VisionPipeline;
+
+/**
+ * A pipeline that wants to know when each frame was captured. The runners call
+ * {@link #setFrameTime} just before {@link #process}.
+ */
+public interface TimestampedPipeline extends VisionPipeline {
+  /**
+   * Sets the capture time of the frame about to be processed.
+   *
+   * @param frameTime the capture time in microseconds, on the {@code NetworkTablesJNI.now()} clock
+   */
+  void setFrameTime(long frameTime);
+}
@@ -0,0 +1,88 @@
+/**
+ * One frame's result as packed into the "Result" number array by {@link ResultPublisher}. All
+ * the values come from the same frame, so reading this instead of the separate entries avoids
+ * mixing values from different frames.
+ *
+ * <p>This class has no dependencies outside the JDK, so robot code can copy it as is:</p>
+ *
+ * <pre>
+ *   VisionResult result = VisionResult.decode(resultEntry.getDoubleArray(new double[0]));
+ *   if (result != null &amp;&amp; result.targetValid) {
+ *     turnTowards(result.centerOffset);
+ *   }
+ * </pre>
+ */
+public final class VisionResult {
+  /** Indexes into the packed array. Targets follow as offset, score pairs from {@link #TARGETS}. */
+  public static final int FRAME_ID = 0;
+  public static final int CAPTURE_TIME = 1;
+  public static final int LATENCY = 2;
+  public static final int CENTER_OFFSET = 3;
+  public static final int RAW_OFFSET = 4;
+  public static final int TARGET_VALID = 5;
+  public static final int CONTOUR_COUNT = 6;
+  public static final int TARGET_COUNT = 7;
+  public static final int TARGETS = 8;
+
+  /** Counts up by one per published frame, so gaps are dropped frames and repeats are stale. */
+  public final long frameId;
+  /** The capture time in microseconds on the coprocessor's NetworkTables clock. */
+  public final long captureTime;
+  /** Milliseconds from capture to publish. */
+  public final double latencyMs;
+  /** The tracked offset predicted to the publish time, and the frame's own offset. */
+  public final double centerOffset, rawOffset;
+  public final boolean targetValid;
+  public final int contourCount;
+  /** The ranked targets' offsets and scores, best first. */
+  public final double[] targetOffsets, targetScores;
+
+  private VisionResult(double[] packed, int targets) {
+    frameId = (long) packed[FRAME_ID];
+    captureTime = (long) packed[CAPTURE_TIME];
+    latencyMs = packed[LATENCY];
+    centerOffset = packed[CENTER_OFFSET];
+    rawOffset = packed[RAW_OFFSET];
+    targetValid = packed[TARGET_VALID] != 0;
+    contourCount = (int) packed[CONTOUR_COUNT];
+    targetOffsets = new double[targets];
+    targetScores = new double[targets];
+    for (int i = 0; i < targets; i++) {
+      targetOffsets[i] = packed[TARGETS + 2 * i];
+      targetScores[i] = packed[TARGETS + 2 * i + 1];
+    }
+  }
+
+  /**
+   * Decodes a packed result.
+   *
+   * @param packed the "Result" entry's value
+   * @return the result, or null if the array is empty or malformed
+   */
+  public static VisionResult decode(double[] packed) {
+    if (packed == null || packed.length < TARGETS) {
+      return null;
+    }
+    int targets = (int) packed[TARGET_COUNT];
+    if (targets < 0 || packed.length < TARGETS + 2 * targets) {
+      return null;
+    }
+    return new VisionResult(packed, targets);
+  }
+
+  /**
+   * Packs a result. The array must have room for {@code TARGETS + 2 * targetCount} values;
+   * the targets themselves are filled in by the caller.
+   */
+  static void encode(double[] packed, int targetCount, long frameId, long captureTime, double latencyMs,
+      double centerOffset, double rawOffset, boolean targetValid, int contourCount) {
+    packed[FRAME_ID] = frameId;
+    packed[CAPTURE_TIME] = captureTime;
+    packed[LATENCY] = latencyMs;
+    packed[CENTER_OFFSET] = centerOffset;
+    packed[RAW_OFFSET] = rawOffset;
+    packed[TARGET_VALID] = targetValid ? 1 : 0;
+    packed[CONTOUR_COUNT] = contourCount;
+    packed[TARGET_COUNT] = targetCount;
+  }
+}
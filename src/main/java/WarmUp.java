@@ -0,0 +1,147 @@
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+import edu.wpi.first.vision.VisionPipeline;
+
+/**
+ * Runs pipelines on generated frames before they see live ones, so their hot methods are
+ * compiled by the time the first real frame arrives instead of being interpreted through the
+ * start of a match. The frames hold from 2 to 32 target strips at a few positions, drawn as
+ * both an upright and an upside-down camera sees them, plus noise, and a GripPipeline searches
+ * them for targets whether or not "Vision Mode" is on. Whichever way up its camera is, half the
+ * target frames give it pairs to match and track.
+ *
+ * <p>Each pipeline runs until the JIT has gone a while without compiling anything, at least
+ * {@value #MIN_QUIET_FRAMES} frames or a quarter of the frames so far, or until its share of
+ * the time budget runs out. Later instances of a pipeline reuse the compiled code, so they
+ * settle after a few frames.</p>
+ */
+public final class WarmUp {
+  private static final int MIN_FRAMES = 60;
+  private static final int MIN_QUIET_FRAMES = 30;
+  /** Frames to run where the JVM can't report compilation time. */
+  private static final int UNMONITORED_FRAMES = 500;
+  private static final int[] STRIPS = {2, 4, 8, 16, 32};
+  private static final int[] SHIFTS = {0, 5};
+
+  private static final CompilationMXBean JIT = ManagementFactory.getCompilationMXBean();
+
+  /**
+   * What one warm-up did.
+   */
+  public static final class Result {
+    public final long nanos;
+    public final int frames;
+    /** Target pairs GripPipelines found, 0 if none ran or none were found. */
+    public final int pairs;
+    /** False if the budget ran out before compilation settled. */
+    public final boolean settled;
+
+    Result(long nanos, int frames, int pairs, boolean settled) {
+      this.nanos = nanos;
+      this.frames = frames;
+      this.pairs = pairs;
+      this.settled = settled;
+    }
+  }
+
+  private WarmUp() {
+  }
+
+  /**
+   * Warms up pipelines one after another, splitting the budget left between those still to go.
+   *
+   * @param names     the pipelines' names, for the log
+   * @param pipelines the pipelines
+   * @param budget    the longest to spend on them all, in seconds
+   * @return the totals for all of them
+   */
+  public static Result run(String[] names, VisionPipeline[] pipelines, double budget) {
+    Mat[] frames = frames();
+    long start = System.nanoTime();
+    long deadline = start + (long) (budget * 1e9);
+    int total = 0;
+    int pairs = 0;
+    boolean settled = true;
+    for (int i = 0; i < pipelines.length; i++) {
+      long now = System.nanoTime();
+      Result result = run(pipelines[i], frames, now + (deadline - now) / (pipelines.length - i));
+      System.out.printf("Warmed up %s in %d ms (%d frames, %d target pairs, %s)%n", names[i],
+          result.nanos / 1000000, result.frames, result.pairs,
+          result.settled ? "compilation settled" : "budget ran out");
+      total += result.frames;
+      pairs += result.pairs;
+      settled &= result.settled;
+    }
+    for (Mat frame : frames) {
+      frame.release();
+    }
+    return new Result(System.nanoTime() - start, total, pairs, settled);
+  }
+
+  private static Result run(VisionPipeline pipeline, Mat[] frames, long deadline) {
+    GripPipeline grip = pipeline instanceof GripPipeline ? (GripPipeline) pipeline
+        : pipeline instanceof CombinedPipeline ? ((CombinedPipeline) pipeline).getGrip() : null;
+    boolean monitored = JIT != null && JIT.isCompilationTimeMonitoringSupported();
+    long start = System.nanoTime();
+    long compileTime = monitored ? JIT.getTotalCompilationTime() : 0;
+    int count = 0;
+    int pairs = 0;
+    int lastCompile = 0;
+    boolean settled = false;
+    Mat working = new Mat();
+    if (grip != null) {
+      grip.setWarmingUp(true);
+    }
+    try {
+      while (System.nanoTime() - deadline < 0) {
+        // some pipelines draw on their input
+        frames[count % frames.length].copyTo(working);
+        pipeline.process(working);
+        count++;
+        if (grip != null) {
+          pairs += grip.getMatcher().getTargetCount();
+        }
+        if (monitored) {
+          long now = JIT.getTotalCompilationTime();
+          if (now != compileTime) {
+            compileTime = now;
+            lastCompile = count;
+          }
+          if (count >= MIN_FRAMES && count - lastCompile >= Math.max(MIN_QUIET_FRAMES, count / 4)) {
+            settled = true;
+            break;
+          }
+        } else if (count >= UNMONITORED_FRAMES) {
+          settled = true;
+          break;
+        }
+      }
+    } finally {
+      if (grip != null) {
+        grip.setWarmingUp(false);
+      }
+      working.release();
+    }
+    return new Result(System.nanoTime() - start, count, pairs, settled);
+  }
+
+  private static Mat[] frames() {
+    Mat[] frames = new Mat[2 * STRIPS.length * SHIFTS.length + 1];
+    int i = 0;
+    for (int strips : STRIPS) {
+      for (int shift : SHIFTS) {
+        // alternating, so a short warm-up still sees both
+        frames[i++] = SyntheticFrames.targets(strips, shift, true);
+        frames[i++] = SyntheticFrames.targets(strips, shift, false);
+      }
+    }
+    // lots of small contours for the filters to reject
+    frames[i] = SyntheticFrames.targets(0, 0);
+    Core.randu(frames[i], 0, 256);
+    return frames;
+  }
+}